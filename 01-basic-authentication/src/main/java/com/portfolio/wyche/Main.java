@@ -13,6 +13,7 @@ import static spark.Spark.secure;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 
 import org.dalesbred.Database;
 import org.dalesbred.result.EmptyResultException;
@@ -25,6 +26,7 @@ import com.portfolio.wyche.controller.AuditController;
 import com.portfolio.wyche.controller.ModeratorController;
 import com.portfolio.wyche.controller.SpaceController;
 import com.portfolio.wyche.controller.UserController;
+import com.portfolio.wyche.password.VerifiedCredentialCache;
 
 import spark.Request;
 import spark.Response;
@@ -41,7 +43,10 @@ public class Main {
         datasource = JdbcConnectionPool.create("jdbc:h2:mem:wyche", "api_user", "password");
         database = Database.forDataSource(datasource);
 
-        var userController = new UserController(database);
+        // remember verified credentials for 5 minutes, for clients sending Basic
+        // credentials on every request
+        var credentialCache = new VerifiedCredentialCache(Duration.ofMinutes(5), 10_000);
+        var userController = new UserController(database, credentialCache);
         var auditController = new AuditController(database);
         var rateLimiter = RateLimiter.create(2.0d);
 
@@ -9,6 +9,7 @@ import org.dalesbred.Database;
 import org.json.JSONObject;
 
 import com.lambdaworks.crypto.SCryptUtil;
+import com.portfolio.wyche.password.VerifiedCredentialCache;
 
 import spark.Filter;
 import spark.Request;
@@ -18,9 +19,11 @@ public class UserController {
 
   private final String USERNAME_PATTERN = "[a-zA-Z][a-zA-Z0-9]{1,29}";
   private final Database database;
+  private final VerifiedCredentialCache credentialCache;
 
-  public UserController(Database database) {
+  public UserController(Database database, VerifiedCredentialCache credentialCache) {
     this.database = database;
+    this.credentialCache = credentialCache;
   }
 
   public JSONObject registerUser(Request request, Response response) throws Exception {
@@ -45,6 +48,7 @@ public class UserController {
     database.updateUnique("insert into users(user_id, pw_hash) " +
         "values(?,?)",
         username, hash);
+    credentialCache.invalidate(username);
 
     response.status(201);
     response.header("Location", "/users/" + username);
@@ -74,6 +78,12 @@ public class UserController {
       throw new IllegalArgumentException("invalid username");
     }
 
+    // skip the database and scrypt for credentials verified recently
+    if (credentialCache.isVerified(username, password)) {
+      request.attribute("subject", username);
+      return;
+    }
+
     // lookup the user in the database and extract the stored hash
     var hash = database.findOptional(String.class, "select pw_hash " +
         "from users " +
@@ -84,6 +94,7 @@ public class UserController {
     // then hash the supplied password with the same salt and parameters, 
     // and finally compare the hashed password with the stored hash
     if (hash.isPresent() && SCryptUtil.check(password, hash.get())) {
+      credentialCache.verified(username, password);
       request.attribute("subject", username);
     }
   }
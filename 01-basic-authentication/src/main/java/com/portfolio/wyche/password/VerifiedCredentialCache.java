@@ -0,0 +1,96 @@
+package com.portfolio.wyche.password;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+// Remember, for a short time, that a username and password pair was verified
+// so that clients sending Basic credentials on every request do not pay for a
+// full scrypt verification each time.
+// Passwords are never stored: entries hold a HMAC of the password under a
+// random key generated for this process only
+public class VerifiedCredentialCache {
+
+  private final SecretKey macKey;
+  private final ThreadLocal<Mac> mac;
+  private final Duration ttl;
+  private final Cache<String, Verified> cache;
+
+  public VerifiedCredentialCache(Duration ttl, long maxSize) {
+    try {
+      this.macKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+
+    this.mac = ThreadLocal.withInitial(this::newMac);
+    this.ttl = ttl;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl)
+        .build();
+  }
+
+  public boolean isVerified(String username, String password) {
+    var verified = cache.getIfPresent(username);
+    if (verified == null) {
+      return false;
+    }
+
+    if (!Instant.now().isBefore(verified.until)) {
+      cache.invalidate(username);
+      return false;
+    }
+
+    return MessageDigest.isEqual(verified.tag, tag(username, password));
+  }
+
+  public void verified(String username, String password) {
+    cache.put(username, new Verified(tag(username, password), Instant.now().plus(ttl)));
+  }
+
+  // must be called whenever the password hash of the user changes
+  public void invalidate(String username) {
+    cache.invalidate(username);
+  }
+
+  private byte[] tag(String username, String password) {
+    var mac = this.mac.get();
+    mac.update(username.getBytes(UTF_8));
+    // separate the username from the password so that the pair is unambiguous
+    mac.update((byte) 0);
+
+    return mac.doFinal(password.getBytes(UTF_8));
+  }
+
+  private Mac newMac() {
+    try {
+      var mac = Mac.getInstance("HmacSHA256");
+      mac.init(macKey);
+
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Verified {
+    private final byte[] tag;
+    private final Instant until;
+
+    private Verified(byte[] tag, Instant until) {
+      this.tag = tag;
+      this.until = until;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.portfolio.wyche.password;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class VerifiedCredentialCacheTest {
+
+  @Test
+  public void verifiedCredentialsAreRemembered() {
+    var cache = new VerifiedCredentialCache(Duration.ofMinutes(5), 100);
+    assertFalse(cache.isVerified("alice", "password"));
+
+    cache.verified("alice", "password");
+
+    assertTrue(cache.isVerified("alice", "password"));
+  }
+
+  @Test
+  public void otherPasswordsAreNotVerified() {
+    var cache = new VerifiedCredentialCache(Duration.ofMinutes(5), 100);
+    cache.verified("alice", "password");
+
+    assertFalse(cache.isVerified("alice", "passwordx"));
+    assertFalse(cache.isVerified("bob", "password"));
+  }
+
+  @Test
+  public void usernameAndPasswordAreNotAmbiguous() {
+    var cache = new VerifiedCredentialCache(Duration.ofMinutes(5), 100);
+    cache.verified("alice", "bpassword");
+
+    assertFalse(cache.isVerified("aliceb", "password"));
+  }
+
+  @Test
+  public void invalidatedCredentialsAreNotVerified() {
+    var cache = new VerifiedCredentialCache(Duration.ofMinutes(5), 100);
+    cache.verified("alice", "password");
+
+    cache.invalidate("alice");
+
+    assertFalse(cache.isVerified("alice", "password"));
+  }
+
+  @Test
+  public void expiredCredentialsAreNotVerified() throws InterruptedException {
+    var cache = new VerifiedCredentialCache(Duration.ofMillis(20), 100);
+    cache.verified("alice", "password");
+
+    Thread.sleep(50);
+
+    assertFalse(cache.isVerified("alice", "password"));
+  }
+}
@@ -2,24 +2,27 @@ package com.portfolio.wyche;
 
 import static spark.Service.SPARK_DEFAULT_PORT;
 import static spark.Spark.afterAfter;
-import static spark.Spark.before;
-import static spark.Spark.delete;
 import static spark.Spark.exception;
-import static spark.Spark.get;
 import static spark.Spark.halt;
 import static spark.Spark.internalServerError;
 import static spark.Spark.notFound;
 import static spark.Spark.port;
-import static spark.Spark.post;
 import static spark.Spark.secure;
 import static spark.Spark.staticFiles;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.KeyStore;
+import java.time.Duration;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntUnaryOperator;
 
 import javax.crypto.SecretKey;
 
@@ -30,16 +33,38 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.util.concurrent.RateLimiter;
+import com.portfolio.wyche.audit.AuditLogWriter;
+import com.portfolio.wyche.audit.AuditStore;
+import com.portfolio.wyche.audit.DatabaseAuditStore;
+import com.portfolio.wyche.audit.PartitionedAuditStore;
+import com.portfolio.wyche.audit.SegmentAuditStore;
 import com.portfolio.wyche.controller.AuditController;
 import com.portfolio.wyche.controller.ModeratorController;
 import com.portfolio.wyche.controller.SpaceController;
 import com.portfolio.wyche.controller.TokenController;
 import com.portfolio.wyche.controller.UserController;
 import com.portfolio.wyche.filter.CorsFilter;
+import com.portfolio.wyche.filter.DispatchTable;
+import com.portfolio.wyche.filter.SecurityHeadersFilter;
+import com.portfolio.wyche.id.IdAllocator;
+import com.portfolio.wyche.password.Argon2idPasswordHasher;
+import com.portfolio.wyche.password.DelegatingPasswordHasher;
+import com.portfolio.wyche.password.LoginThrottle;
+import com.portfolio.wyche.password.PasswordHasher;
+import com.portfolio.wyche.password.PasswordHashingExecutor;
+import com.portfolio.wyche.password.PasswordParameters;
+import com.portfolio.wyche.password.Pbkdf2PasswordHasher;
+import com.portfolio.wyche.password.ScryptPasswordHasher;
+import com.portfolio.wyche.permission.PermissionCache;
+import com.portfolio.wyche.token.BinaryTokenStore;
+import com.portfolio.wyche.token.CachingTokenStore;
 import com.portfolio.wyche.token.DatabaseTokenStore;
 import com.portfolio.wyche.token.EncryptedJwtTokenStore;
+import com.portfolio.wyche.token.JwtAccessTokenStore;
 import com.portfolio.wyche.token.OAuth2TokenStore;
-import com.portfolio.wyche.token.SecureTokenStore;
+import com.portfolio.wyche.token.TokenDenyList;
+import com.portfolio.wyche.token.TokenStore;
+import com.portfolio.wyche.token.WriteBehindTokenStore;
 
 import spark.Request;
 import spark.Response;
@@ -54,16 +79,69 @@ public class Main {
         var datasource = JdbcConnectionPool.create("jdbc:h2:mem:wyche", "wyche", "password");
         var database = Database.forDataSource(datasource);
         createTables(database);
+        // audit partitions are created and dropped by the schema owner
+        var schemaOwner = database;
 
         datasource = JdbcConnectionPool.create("jdbc:h2:mem:wyche", "api_user", "password");
         database = Database.forDataSource(datasource);
 
-        var spaceController = new SpaceController(database);
+        // shared scheduler for background maintenance tasks
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdownNow));
+
+        // grants invalidate the cached permissions, which also expire after 5
+        // minutes in case of a grant made directly in the database. At most 100
+        // users are cached on each of the 1,000 most recently used spaces
+        var permissionCache = new PermissionCache(database, 1_000, 100, Duration.ofMinutes(5));
+        // ids are allocated in-process from blocks reserved from the sequences
+        var spaceIds = new IdAllocator(database, "space_id_seq", 100);
+        var messageIds = new IdAllocator(database, "msg_id_seq", 1_000);
+        var auditIds = new IdAllocator(database, "audit_id_seq", 1_000);
+        var spaceController = new SpaceController(database, permissionCache, spaceIds, messageIds);
         var moderatorController = new ModeratorController(database);
-        var userController = new UserController(database);
-        var auditController = new AuditController(database);
+        // password hashing is CPU bound, run it on a pool sized to the number of
+        // cores and reject logins beyond the queue capacity with a 503
+        var hashingExecutor = new PasswordHashingExecutor(Runtime.getRuntime().availableProcessors(), 64);
+        var passwordHasher = passwordHasher(System.getProperty("password.hasher", "scrypt"),
+                Duration.ofMillis(Long.getLong("password.target.ms", 100)),
+                new PasswordParameters(Paths.get("password.properties")));
+        // after 5 failed logins for a username or from an address, block further
+        // attempts for 1 second, doubling with every failure up to 15 minutes
+        var loginThrottle = new LoginThrottle(5, Duration.ofSeconds(1), Duration.ofMinutes(15),
+                Duration.ofHours(1), 100_000);
+        // bulk provisioning hashes in parallel on its own pool, leaving half of
+        // the cores for the interactive logins, and gives up on a batch (with a
+        // 503) after 2 minutes
+        var provisioningPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        var userController = new UserController(database, passwordHasher, hashingExecutor, loginThrottle,
+                provisioningPool, Duration.ofMinutes(2), permissionCache);
+        // audit records are stored in the audit_log table, or with
+        // -Daudit.store=segments in memory-mapped files, or with
+        // -Daudit.store=partitioned in one table per day. Segments and partitions
+        // are kept for -Daudit.retention.days (30 by default)
+        var auditRetentionDays = Integer.getInteger("audit.retention.days", 30);
+        AuditStore auditStore = switch (System.getProperty("audit.store", "database")) {
+            case "segments" -> new SegmentAuditStore(Paths.get("audit"), 64 * 1024 * 1024, Duration.ofHours(1),
+                    Duration.ofDays(auditRetentionDays), scheduler);
+            case "partitioned" -> new PartitionedAuditStore(database, schemaOwner, auditRetentionDays, scheduler);
+            default -> new DatabaseAuditStore(database);
+        };
+        // audit events are written in the background, when the queue is full the
+        // requests wait by default (-Daudit.overflow=drop|spill to change this)
+        var auditLogWriter = new AuditLogWriter(auditStore, auditIds,
+                AuditLogWriter.OverflowPolicy.valueOf(System.getProperty("audit.overflow", "block").toUpperCase()),
+                10_000, Duration.ofMillis(200), Paths.get("audit-spill.jsonl"));
+        // segments persist across restarts, unlike the audit id sequence: audit
+        // ids continue after those already stored, including the spilled
+        // events replayed by the writer
+        if (auditStore instanceof SegmentAuditStore segments) {
+            auditIds.restartAfter(schemaOwner, segments.maxAuditId());
+        }
+        var auditController = new AuditController(auditStore, auditLogWriter);
         var rateLimiter = RateLimiter.create(2.0d);
 
+        var databaseTokenStore = new DatabaseTokenStore(database, scheduler);
+
         var keyPassword = System.getProperty("keystore.password", "changeit").toCharArray();
         var keyStore = KeyStore.getInstance("PKCS12");
         keyStore.load(new FileInputStream("keystore.p12"), keyPassword);
@@ -71,14 +149,56 @@ public class Main {
         var clientId = "clientId";
         var clientSecret = "clientSecret";
         var introspectionEndpoint = URI.create("https://localhost:8443/oauth2/introspect");
-        SecureTokenStore tokenStore = new OAuth2TokenStore(introspectionEndpoint, clientId, clientSecret);
-        var tokenController = new TokenController(tokenStore);
+        var introspectionTokenStore = new OAuth2TokenStore(introspectionEndpoint, clientId, clientSecret);
+        // validate JWT access tokens locally, opaque tokens are still introspected
+        var jwkSetUri = URI.create("https://localhost:8443/oauth2/jwks");
+        var tokenStore = new JwtAccessTokenStore(jwkSetUri, "https://localhost:8443", "https://localhost:4567",
+                introspectionTokenStore, scheduler);
+        // cache validated tokens for at most 1 minute so that revocations made
+        // outside of this API are still picked up quickly
+        var cachingTokenStore = new CachingTokenStore(tokenStore, Duration.ofMinutes(1), 10_000);
+        // by default the API accepts the access tokens of the authorization
+        // server, which it cannot create. With -Dtoken.store=encrypted it issues
+        // its own tokens as encrypted JWTs, checked against an in-memory deny-list
+        // of revoked tokens rather than the database, with -Dtoken.store=binary
+        // as compact AES-GCM sealed tokens which cannot be revoked, with
+        // -Dtoken.store=database as random ids stored in the database and with
+        // -Dtoken.store=writebehind as random ids kept in memory and written to
+        // the database in the background (-Dtoken.durability=sync or async)
+        var tokenPermissions = Boolean.getBoolean("token.permissions");
+        var tokenStoreType = System.getProperty("token.store", tokenPermissions ? "database" : "oauth");
+        var tokenDenyList = tokenStoreType.equals("encrypted") ? new TokenDenyList(database, 10_000, scheduler) : null;
+        var writeBehindTokenStore = tokenStoreType.equals("writebehind")
+                ? new WriteBehindTokenStore(database,
+                        WriteBehindTokenStore.Durability.valueOf(System.getProperty("token.durability", "sync").toUpperCase()),
+                        Duration.ofMillis(100), 10_000, scheduler)
+                : null;
+        TokenStore sessionTokenStore = switch (tokenStoreType) {
+            case "encrypted" -> new EncryptedJwtTokenStore((SecretKey) encKey, tokenDenyList);
+            case "binary" -> new BinaryTokenStore((SecretKey) encKey);
+            case "database" -> new CachingTokenStore(databaseTokenStore, Duration.ofMinutes(1), 10_000);
+            case "writebehind" -> writeBehindTokenStore;
+            case "oauth" -> cachingTokenStore;
+            default -> throw new IllegalArgumentException("unknown token store: " + tokenStoreType);
+        };
+        // optionally snapshot the space permissions into the tokens issued by the
+        // API so that requests are authorized without a permission lookup
+        if (tokenPermissions && sessionTokenStore == cachingTokenStore) {
+            throw new IllegalArgumentException("-Dtoken.permissions requires a token store issuing tokens");
+        }
+        var tokenController = tokenPermissions
+                ? new TokenController(sessionTokenStore, permissionCache)
+                : new TokenController(sessionTokenStore);
 
         /* -------------------------------------------------------------------------- */
         /* filter */
         /* -------------------------------------------------------------------------- */
+        // the filters are compiled into one pipeline per route once every route is
+        // registered, so that each request only runs the filters applying to it
+        var routes = new DispatchTable();
+
         /* ------------------------------ rate limiter ------------------------------ */
-        before((request, response) -> {
+        routes.before((request, response) -> {
             if (!rateLimiter.tryAcquire()) {
                 // `Retry-After` header indicate how many seconds the client should wait before
                 // trying again
@@ -90,102 +210,102 @@ public class Main {
         });
 
         /* ---------------------------------- cors ---------------------------------- */
-        before(new CorsFilter(Set.of("https://localhost:9999")));
+        routes.before(new CorsFilter(Set.of("https://localhost:9999")));
 
         /* --------------------- standard http security headers --------------------- */
-        before((request, response) -> {
+        routes.before((request, response) -> {
             if (request.requestMethod().equals("POST") && !"application/json".equals(request.contentType())) {
                 halt(415, new JSONObject().put("error", "Only application/json supported").toString());
             }
         });
 
         // apply standard http security headers to all response
-        afterAfter(((request, response) -> {
-            // explicitly indicate he content-type
-            // explicitly indicate the UTF-8 character-encoding
-            response.type("application/json;charset=utf-8");
-            // Set to DENY to prevent the API responses being loaded in a frame or iframe.
-            response.header("X-Frame-Options", "DENY");
-            // turn-off browser built-in protection against reflected XSS attacks
-            // XSS protections in browser have been found to cause security vulnerabilities
-            // OWASP project recommends always disabling the filter, as follows:
-            response.header("X-XSS-Protection", "0");
-            // Controls whether browsers and proxies can cache content in the response and
-            // for how long
-            response.header("Cache-Control", "no-store");
-            // reduce the scope for XSS attacks by restricting where scripts can be loaded
-            // from and what they can do
-            // - `default-src 'none'`: prevents the response from loading any scripts or
-            // resources
-            // - `frame-ancestors 'none'`: replacement for X-Frame-Options, this prevents
-            // the response being loaded into an iframe
-            // - `sandbox n/a`: disables scripts and other potentially dangerous content
-            // from being executed
-            response.header("Content-Security-Policy", "default-src 'none'; frame-ancestors 'none'; sandbox");
-            // remove server information leak (jetty webserver version)
-            response.header("Server", "");
-            // Set to `nosniff` to prevent the browser guessing the correct Content-Type
-            // response.header("X-Content-Type-Options", "nosniff");
-            // HTTP Strict-Transport-Security (HSTS) header instruct the browser to always
-            // use the HTTPS version in the future
-            // Note: on localhost it prevents from running the development server over plain
-            // HTTP
-            // response.header("Strict-Transport-Security", "max-age=31536000");
-        }));
+        var securityHeaders = new SecurityHeadersFilter();
+        afterAfter(securityHeaders);
 
         /* ----------------------------- authentication ----------------------------- */
-        before(userController::authenticate);
-        before(tokenController::validateToken);
+        routes.before(userController::authenticate);
+        routes.before(tokenController::validateToken);
 
         /* -------------------------------- audit log ------------------------------- */
         // record access log
-        before(auditController::auditRequestStart);
+        routes.before(auditController::auditRequestStart);
         afterAfter(auditController::auditRequestEnd);
 
         /* -------------------------------------------------------------------------- */
         /* session */
         /* -------------------------------------------------------------------------- */
-        before("/sessions", userController::requireAuthentication);
-        post("/sessions", tokenController::login);
-        delete("/sessions", tokenController::logout);
+        routes.before("/sessions", userController::requireAuthentication);
+        routes.post("/sessions", tokenController::login);
+        routes.delete("/sessions", tokenController::logout);
 
         /* -------------------------------------------------------------------------- */
         /* space controller */
         /* -------------------------------------------------------------------------- */
-        before("/spaces", userController::requireAuthentication);
-        post("/spaces", spaceController::createSpace);
+        routes.before("/spaces", userController::requireAuthentication);
+        routes.post("/spaces", spaceController::createSpace);
 
-        before("/spaces/:spaceId/messages", userController.requirePermission("POST", "w"));
-        post("/spaces/:spaceId/messages", spaceController::postMessage);
+        routes.before("POST", "/spaces/:spaceId/messages", userController.requirePermission("POST", "w"));
+        routes.post("/spaces/:spaceId/messages", spaceController::postMessage);
 
-        before("/spaces/:spaceId/messages/*", userController.requirePermission("GET", "r"));
-        get("/spaces/:spaceId/messages/:msgId", spaceController::readMessage);
+        routes.before("GET", "/spaces/:spaceId/messages/*", userController.requirePermission("GET", "r"));
+        routes.get("/spaces/:spaceId/messages/:msgId", spaceController::readMessage);
 
-        before("/spaces/:spaceId/messages", userController.requirePermission("GET", "r"));
-        get("/spaces/:spaceId/messages", spaceController::findMessages);
+        routes.before("GET", "/spaces/:spaceId/messages", userController.requirePermission("GET", "r"));
+        routes.get("/spaces/:spaceId/messages", spaceController::findMessages);
 
-        before("/spaces/:spaceId/members", userController.requirePermission("POST", "rwd"));
-        post("/spaces/:spaceId/members", spaceController::addMember);
+        routes.before("POST", "/spaces/:spaceId/members", userController.requirePermission("POST", "rwd"));
+        routes.post("/spaces/:spaceId/members", spaceController::addMember);
 
         /* -------------------------------------------------------------------------- */
         /* moderator controller */
         /* -------------------------------------------------------------------------- */
-        before("/spaces?:spaceId/messages/*", userController.requirePermission("DELETE", "d"));
-        delete("/spaces/:spaceId/messages/:msgId", moderatorController::deletePost);
+        routes.before("DELETE", "/spaces/:spaceId/messages/*", userController.requirePermission("DELETE", "d"));
+        routes.delete("/spaces/:spaceId/messages/:msgId", moderatorController::deletePost);
 
         /* -------------------------------------------------------------------------- */
         /* other controllers */
         /* -------------------------------------------------------------------------- */
-        get("/logs", auditController::readAuditLog);
-        post("/users", userController::registerUser);
+        // the audit log is streamed, so the headers are set before the body
+        routes.before("GET", "/logs", securityHeaders);
+        routes.get("/logs", auditController::readAuditLog);
+        routes.post("/users", userController::registerUser);
+
+        routes.before("/users/bulk", userController::requireAuthentication);
+        routes.post("/users/bulk", userController::registerUsers);
 
-        before("/expired_tokens", userController::requireAuthentication);
-        delete("/expired_tokens", (request, response) -> {
+        routes.before("/metrics/*", userController::requireAuthentication);
+        routes.get("/metrics/introspection", (request, response) -> introspectionTokenStore.metrics());
+        routes.get("/metrics/jwt", (request, response) -> tokenStore.metrics());
+        routes.get("/metrics/tokens", (request, response) -> databaseTokenStore.metrics());
+        if (tokenDenyList != null) {
+            routes.get("/metrics/revocations", (request, response) -> tokenDenyList.metrics());
+        }
+        if (writeBehindTokenStore != null) {
+            routes.get("/metrics/writebehind", (request, response) -> writeBehindTokenStore.metrics());
+        }
+        routes.get("/metrics/hashing", (request, response) -> hashingExecutor.metrics());
+        routes.get("/metrics/logins", (request, response) -> loginThrottle.metrics());
+        routes.get("/metrics/permissions", (request, response) -> permissionCache.metrics());
+        routes.get("/metrics/audit", (request, response) -> switch (auditStore) {
+            case SegmentAuditStore segments -> auditLogWriter.metrics().put("segments", segments.metrics());
+            case PartitionedAuditStore partitions -> auditLogWriter.metrics().put("partitions", partitions.metrics());
+            default -> auditLogWriter.metrics();
+        });
+        routes.get("/metrics/ids", (request, response) -> new JSONObject()
+                .put("spaces", spaceIds.metrics())
+                .put("messages", messageIds.metrics())
+                .put("audit", auditIds.metrics()));
+
+        routes.before("/expired_tokens", userController::requireAuthentication);
+        routes.delete("/expired_tokens", (request, response) -> {
             databaseTokenStore.deleteExpiredTokens();
 
             return new JSONObject();
         });
 
+        routes.install();
+
         /* -------------------------------------------------------------------------- */
         /* error handling */
         /* -------------------------------------------------------------------------- */
@@ -195,6 +315,7 @@ public class Main {
         exception(IllegalArgumentException.class, Main::badRequest);
         exception(JSONException.class, Main::badRequest);
         exception(EmptyResultException.class, (err, req, res) -> res.status(404));
+        exception(RejectedExecutionException.class, Main::serviceUnavailable);
     }
 
     // remove the leak of the exception class details by changing the exception
@@ -206,6 +327,44 @@ public class Main {
         response.body(new JSONObject().put("error", ex.getMessage()).toString());
     }
 
+    // a saturated resource (e.g., the authorization server or the password
+    // hashing pool) is reported as a temporary condition the client can retry
+    private static void serviceUnavailable(Exception ex, Request request, Response response) {
+        response.status(503);
+        response.header("Retry-After", "2");
+        response.body(new JSONObject().put("error", ex.getMessage()).toString());
+    }
+
+    // calibrate the cost of the selected algorithm on this hardware, with a 25%
+    // margin so that measurement noise does not change it between restarts. The
+    // cost is kept in `password.properties` and only ever raised, or pinned with
+    // -Dpassword.cost. Hashes from the other algorithms are still accepted and
+    // upgraded on login
+    private static PasswordHasher passwordHasher(String algorithm, Duration target, PasswordParameters parameters)
+            throws IOException {
+        var scrypt = new ScryptPasswordHasher(32768, 8, 1);
+        var pbkdf2 = new Pbkdf2PasswordHasher(600_000);
+        var argon2 = new Argon2idPasswordHasher(19 * 1024, 2, 1);
+        var tolerance = 0.25;
+        IntUnaryOperator calibration = switch (algorithm) {
+            case "scrypt" -> n -> ScryptPasswordHasher.calibrate(n, target, tolerance);
+            case "pbkdf2" -> i -> Pbkdf2PasswordHasher.calibrate(i, target, tolerance);
+            case "argon2id" -> t -> Argon2idPasswordHasher.calibrate(t, target, tolerance);
+            default -> throw new IllegalArgumentException("unknown password hasher: " + algorithm);
+        };
+        var pinned = Integer.getInteger("password.cost");
+        var cost = pinned != null ? pinned : parameters.cost(algorithm, calibration);
+
+        return switch (algorithm) {
+            case "scrypt" -> new DelegatingPasswordHasher(new ScryptPasswordHasher(cost, 8, 1),
+                    List.of(pbkdf2, argon2));
+            case "pbkdf2" -> new DelegatingPasswordHasher(new Pbkdf2PasswordHasher(cost),
+                    List.of(scrypt, argon2));
+            default -> new DelegatingPasswordHasher(new Argon2idPasswordHasher(19 * 1024, cost, 1),
+                    List.of(scrypt, pbkdf2));
+        };
+    }
+
     private static void createTables(Database database) throws Exception {
         var path = Paths.get(Main.class.getResource("/schema.sql").toURI());
         database.update(Files.readString(path));
@@ -0,0 +1,344 @@
+package com.portfolio.wyche.audit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.portfolio.wyche.id.IdAllocator;
+
+// Queue audit records in memory and write them to the audit store from a
+// background thread in batches, so that requests never wait on
+// audit I/O. Each request produces a single record once it completes, audit
+// ids are allocated in-process from blocks of the `audit_id_seq` sequence.
+// When the queue is full, events are handled according to the overflow policy.
+// Batches the store fails to write are retried row by row, the rows still
+// failing are spilled to the same local file as overflowing events, and written
+// again once the queue has drained. Rows the store rejects while accepting the
+// others are set aside in a dead-letter file rather than retried forever
+public class AuditLogWriter implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AuditLogWriter.class);
+
+  public enum OverflowPolicy {
+    // wait for the writer to make room, the request is slowed down but no event
+    // is lost
+    BLOCK,
+    // discard the event and count it
+    DROP,
+    // append the event to a local file, written to the store once the queue
+    // has drained
+    SPILL
+  }
+
+  private static final int MAX_BATCH_SIZE = 1_000;
+  // a batch whose first rows all fail on their own is not tried further, the
+  // store is considered unavailable
+  private static final int MAX_ROW_FAILURES = 10;
+
+  private final AuditStore auditStore;
+  private final OverflowPolicy overflowPolicy;
+  private final int capacity;
+  private final Path spillFile;
+  private final Path replayFile;
+  private final Path replayedFile;
+  private final Path deadLetterFile;
+  private final Object spillLock = new Object();
+  private final Queue<Queued> events = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final IdAllocator auditIds;
+  private final ScheduledExecutorService writer;
+
+  private final LongAdder written = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder spilled = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder deadLettered = new LongAdder();
+
+  public AuditLogWriter(AuditStore auditStore, IdAllocator auditIds, OverflowPolicy overflowPolicy, int capacity,
+      Duration flushInterval, Path spillFile) {
+    this.auditStore = auditStore;
+    this.auditIds = auditIds;
+    this.overflowPolicy = overflowPolicy;
+    this.capacity = capacity;
+    this.spillFile = spillFile;
+    this.replayFile = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+    this.replayedFile = spillFile.resolveSibling(spillFile.getFileName() + ".replayed");
+    this.deadLetterFile = spillFile.resolveSibling(spillFile.getFileName() + ".dead");
+
+    // events spilled before a restart are written first
+    replaySpilledEvents();
+
+    this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "audit-log-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    var interval = flushInterval.toMillis();
+    writer.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+  }
+
+  public long nextId() {
+    return auditIds.next();
+  }
+
+  public void append(long auditId, String method, String path, String userId, int status, Instant start,
+      long durationMicros) {
+    var event = new Queued(new AuditRecord(auditId, method, path, userId, status, start, durationMicros));
+    if (offer(event)) {
+      return;
+    }
+
+    switch (overflowPolicy) {
+      case BLOCK -> {
+        while (!offer(event)) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+      }
+      case DROP -> dropped.increment();
+      case SPILL -> spill(List.of(event.record));
+    }
+  }
+
+  public JSONObject metrics() {
+    // how long the oldest event has been waiting to be written, its request
+    // may have started long before
+    var oldest = events.peek();
+    var lag = oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueued);
+
+    return new JSONObject()
+        .put("overflow_policy", overflowPolicy)
+        .put("queue_depth", size.get())
+        .put("flush_lag_ms", lag)
+        .put("written", written.sum())
+        .put("dropped", dropped.sum())
+        .put("spilled", spilled.sum())
+        .put("failed", failed.sum())
+        .put("dead_lettered", deadLettered.sum());
+  }
+
+  @Override
+  public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    flush();
+  }
+
+  private boolean offer(Queued event) {
+    var queued = size.incrementAndGet();
+    if (queued > capacity) {
+      size.decrementAndGet();
+      scheduleFlush();
+      return false;
+    }
+
+    events.add(event);
+    // start writing early rather than waiting for the next interval once a full
+    // batch is queued
+    if (queued >= MAX_BATCH_SIZE) {
+      scheduleFlush();
+    }
+
+    return true;
+  }
+
+  private void scheduleFlush() {
+    if (!writer.isShutdown() && flushScheduled.compareAndSet(false, true)) {
+      writer.execute(this::flush);
+    }
+  }
+
+  private synchronized void flush() {
+    flushScheduled.set(false);
+
+    var batch = new ArrayList<AuditRecord>(MAX_BATCH_SIZE);
+    var writeFailed = false;
+    Queued event;
+    do {
+      batch.clear();
+      while (batch.size() < MAX_BATCH_SIZE && (event = events.poll()) != null) {
+        batch.add(event.record);
+      }
+      size.addAndGet(-batch.size());
+
+      // keep the writer alive, the events which cannot be written are spilled
+      // and retried with the other spilled events
+      var unwritten = tryWrite(batch);
+      if (!unwritten.isEmpty()) {
+        writeFailed = true;
+        failed.add(unwritten.size());
+        logger.error("Unable to write {} audit events, spilling them", unwritten.size());
+        spill(unwritten);
+      }
+    } while (batch.size() == MAX_BATCH_SIZE);
+
+    // spilled events are not retried while the store is failing
+    if (!writeFailed && size.get() == 0) {
+      replaySpilledEvents();
+    }
+  }
+
+  private void write(List<AuditRecord> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    auditStore.write(batch);
+    written.add(batch.size());
+  }
+
+  // write the batch, or its rows one by one when the store rejects it. Returns
+  // the events left to retry, none when the rows failing on their own were
+  // set aside in the dead-letter file
+  private List<AuditRecord> tryWrite(List<AuditRecord> batch) {
+    try {
+      write(batch);
+      return List.of();
+    } catch (RuntimeException e) {
+      logger.warn("Unable to write {} audit events, writing them one by one", batch.size(), e);
+    }
+
+    var rejected = new ArrayList<AuditRecord>();
+    var accepted = false;
+    for (var i = 0; i < batch.size(); i++) {
+      if (!accepted && rejected.size() == MAX_ROW_FAILURES) {
+        return List.copyOf(batch);
+      }
+
+      try {
+        write(batch.subList(i, i + 1));
+        accepted = true;
+      } catch (RuntimeException e) {
+        rejected.add(batch.get(i));
+      }
+    }
+
+    if (!accepted) {
+      return rejected;
+    }
+
+    if (!rejected.isEmpty()) {
+      logger.error("Audit store rejected {} events, moving them to {}", rejected.size(), deadLetterFile);
+      deadLettered.add(rejected.size());
+      append(deadLetterFile, rejected);
+    }
+
+    return List.of();
+  }
+
+  private void spill(List<AuditRecord> batch) {
+    if (append(spillFile, batch)) {
+      spilled.add(batch.size());
+    }
+  }
+
+  private boolean append(Path file, List<AuditRecord> batch) {
+    var lines = new StringBuilder();
+    for (var event : batch) {
+      lines.append(event.toJson()).append('\n');
+    }
+
+    synchronized (spillLock) {
+      try {
+        Files.writeString(file, lines, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return true;
+      } catch (IOException e) {
+        dropped.add(batch.size());
+        logger.error("Unable to write {} audit events to {}", batch.size(), file, e);
+        return false;
+      }
+    }
+  }
+
+  // move the spill file aside (so that new events spill to a fresh file) and
+  // write its events, the file is only deleted once they are committed. The
+  // number of lines already written is kept next to it, so that a replay
+  // failing part way resumes after the last committed batch instead of writing
+  // the earlier batches again
+  private void replaySpilledEvents() {
+    try {
+      synchronized (spillLock) {
+        if (!Files.exists(replayFile)) {
+          if (!Files.exists(spillFile)) {
+            return;
+          }
+
+          Files.deleteIfExists(replayedFile);
+          Files.move(spillFile, replayFile);
+        }
+      }
+
+      var replayed = Files.exists(replayedFile) ? Long.parseLong(Files.readString(replayedFile, UTF_8)) : 0;
+      var batch = new ArrayList<AuditRecord>(MAX_BATCH_SIZE);
+      var lineNumber = 0L;
+      try (var reader = Files.newBufferedReader(replayFile, UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (++lineNumber <= replayed || line.isBlank()) {
+            continue;
+          }
+
+          batch.add(AuditRecord.fromJson(new JSONObject(line)));
+          if (batch.size() == MAX_BATCH_SIZE) {
+            replay(batch, lineNumber);
+            batch.clear();
+          }
+        }
+      }
+      replay(batch, lineNumber);
+
+      Files.delete(replayFile);
+      Files.delete(replayedFile);
+    } catch (IOException | RuntimeException e) {
+      logger.error("Unable to write spilled audit events, retrying later", e);
+    }
+  }
+
+  // a crash between the commit and the update of the progress can still
+  // write one batch twice
+  private void replay(List<AuditRecord> batch, long lineNumber) throws IOException {
+    if (!batch.isEmpty() && !tryWrite(batch).isEmpty()) {
+      throw new IllegalStateException("audit store unavailable");
+    }
+
+    var progress = replayedFile.resolveSibling(replayedFile.getFileName() + ".tmp");
+    Files.writeString(progress, Long.toString(lineNumber), UTF_8);
+    Files.move(progress, replayedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static final class Queued {
+    final AuditRecord record;
+    final long enqueued = System.nanoTime();
+
+    Queued(AuditRecord record) {
+      this.record = record;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.portfolio.wyche.audit;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+// Records of the requests started in [from, to) matching the optional
+// filters, ordered by (time, audit id). Pages are chained with a cursor
+// holding the position of the last record returned.
+//
+// Records are keyed by the start of their request but written once it
+// completes and the writer has flushed them, so a record can appear behind a
+// cursor already handed out: a page reaching into the last few seconds misses
+// the requests still in progress (or still queued) when it was read. Clients
+// needing every record page with a `to` older than the longest request plus
+// the flush interval
+public class AuditQuery {
+  public final Instant from;
+  public final Instant to;
+  // null when not filtered
+  public final String userId;
+  // 2 for 2xx responses, etc., 0 when not filtered
+  public final int statusClass;
+  public final String method;
+  public final String pathPrefix;
+  // position of the last record of the previous page, null for the first page
+  public final Instant afterTime;
+  public final long afterId;
+  public final int limit;
+
+  public AuditQuery(Instant from, Instant to, String userId, int statusClass, String method, String pathPrefix,
+      String cursor, int limit) {
+    this.from = from;
+    this.to = to;
+    this.userId = userId;
+    this.statusClass = statusClass;
+    this.method = method;
+    this.pathPrefix = pathPrefix;
+    this.limit = limit;
+
+    if (cursor == null) {
+      this.afterTime = null;
+      this.afterId = 0;
+    } else {
+      var separator = cursor.indexOf('.');
+      if (separator < 0) {
+        throw new IllegalArgumentException("invalid cursor");
+      }
+
+      try {
+        this.afterTime = Instant.EPOCH.plus(Long.parseLong(cursor, 0, separator, 10), ChronoUnit.MICROS);
+        this.afterId = Long.parseLong(cursor, separator + 1, cursor.length(), 10);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid cursor");
+      }
+    }
+  }
+
+  private AuditQuery(AuditQuery query, int limit) {
+    this.from = query.from;
+    this.to = query.to;
+    this.userId = query.userId;
+    this.statusClass = query.statusClass;
+    this.method = query.method;
+    this.pathPrefix = query.pathPrefix;
+    this.afterTime = query.afterTime;
+    this.afterId = query.afterId;
+    this.limit = limit;
+  }
+
+  public AuditQuery withLimit(int limit) {
+    return new AuditQuery(this, limit);
+  }
+
+  // cursor of the page following the given record
+  public static String cursor(AuditRecord record) {
+    return ChronoUnit.MICROS.between(Instant.EPOCH, record.time) + "." + record.auditId;
+  }
+
+  public boolean matches(AuditRecord record) {
+    return !record.time.isBefore(from) && record.time.isBefore(to)
+        && isAfterCursor(record)
+        && (userId == null || userId.equals(record.userId))
+        && (statusClass == 0 || record.status / 100 == statusClass)
+        && (method == null || method.equals(record.method))
+        && (pathPrefix == null || record.path.startsWith(pathPrefix));
+  }
+
+  private boolean isAfterCursor(AuditRecord record) {
+    if (afterTime == null) {
+      return true;
+    }
+
+    var order = record.time.compareTo(afterTime);
+
+    return order > 0 || (order == 0 && record.auditId > afterId);
+  }
+}
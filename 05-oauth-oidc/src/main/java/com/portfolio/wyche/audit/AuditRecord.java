@@ -0,0 +1,49 @@
+package com.portfolio.wyche.audit;
+
+import java.time.Instant;
+
+import org.json.JSONObject;
+
+public class AuditRecord {
+  // duration of the requests rejected before the audit filter started timing
+  // them, stored as null
+  public static final long UNKNOWN_DURATION = -1;
+
+  public final long auditId;
+  public final String method;
+  public final String path;
+  // null for anonymous requests
+  public final String userId;
+  public final int status;
+  // start of the request, or its end when the start is unknown
+  public final Instant time;
+  public final long durationMicros;
+
+  public AuditRecord(long auditId, String method, String path, String userId, int status, Instant time,
+      long durationMicros) {
+    this.auditId = auditId;
+    this.method = method;
+    this.path = path;
+    this.userId = userId;
+    this.status = status;
+    this.time = time;
+    this.durationMicros = durationMicros;
+  }
+
+  public JSONObject toJson() {
+    return new JSONObject()
+        .put("id", auditId)
+        .put("method", method)
+        .put("path", path)
+        .put("status", status)
+        .put("user", userId)
+        .put("time", time.toString())
+        .put("duration_us", durationMicros == UNKNOWN_DURATION ? JSONObject.NULL : durationMicros);
+  }
+
+  public static AuditRecord fromJson(JSONObject json) {
+    return new AuditRecord(json.getLong("id"), json.getString("method"), json.getString("path"),
+        json.optString("user", null), json.getInt("status"), Instant.parse(json.getString("time")),
+        json.isNull("duration_us") ? UNKNOWN_DURATION : json.getLong("duration_us"));
+  }
+}
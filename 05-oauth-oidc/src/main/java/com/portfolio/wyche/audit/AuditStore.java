@@ -0,0 +1,15 @@
+package com.portfolio.wyche.audit;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface AuditStore {
+
+  // called from a single writer thread
+  void write(List<AuditRecord> records);
+
+  // pass the records matching the query to the consumer, in (time, audit id)
+  // order, as they are read
+  void read(AuditQuery query, Consumer<AuditRecord> consumer);
+
+}
@@ -0,0 +1,142 @@
+package com.portfolio.wyche.audit;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.dalesbred.Database;
+
+// Store the audit records in the `audit_log` table (or a table with the same
+// layout), with multi-row inserts. Strings longer than their column are
+// truncated rather than failing the whole insert
+public class DatabaseAuditStore implements AuditStore {
+
+  private static final int ROWS_PER_INSERT = 100;
+  // the widths of the varchar columns, in characters
+  private static final int METHOD_LENGTH = 10;
+  private static final int PATH_LENGTH = 100;
+  private static final int USER_LENGTH = 30;
+
+  private final Database database;
+  private final String table;
+  private final String fullInsert;
+
+  public DatabaseAuditStore(Database database) {
+    this(database, "audit_log");
+  }
+
+  public DatabaseAuditStore(Database database, String table) {
+    if (!table.matches("[a-z0-9_]+")) {
+      throw new IllegalArgumentException("invalid table name");
+    }
+
+    this.database = database;
+    this.table = table;
+    this.fullInsert = insert(ROWS_PER_INSERT);
+  }
+
+  @Override
+  public void write(List<AuditRecord> records) {
+    if (records.isEmpty()) {
+      return;
+    }
+
+    database.withVoidTransaction(tx -> {
+      for (var from = 0; from < records.size(); from += ROWS_PER_INSERT) {
+        var rows = records.subList(from, Math.min(records.size(), from + ROWS_PER_INSERT));
+        var args = new ArrayList<>(rows.size() * 7);
+        for (var row : rows) {
+          args.add(row.auditId);
+          args.add(truncate(row.method, METHOD_LENGTH));
+          args.add(truncate(row.path, PATH_LENGTH));
+          args.add(truncate(row.userId, USER_LENGTH));
+          args.add(row.status);
+          args.add(row.time);
+          args.add(row.durationMicros == AuditRecord.UNKNOWN_DURATION ? null : row.durationMicros);
+        }
+
+        database.update(rows.size() == ROWS_PER_INSERT ? fullInsert : insert(rows.size()), args.toArray());
+      }
+    });
+  }
+
+  @Override
+  public void read(AuditQuery query, Consumer<AuditRecord> consumer) {
+    var sql = new StringBuilder("select audit_id, method, path, user_id, status, audit_time, duration_us " +
+        "from " + table + " " +
+        "where audit_time >= ? and audit_time < ?");
+    var args = new ArrayList<Object>(List.of(query.from, query.to));
+
+    // keyset pagination, written so that the (audit_time, audit_id) indexes
+    // are used to seek to the first record of the page
+    if (query.afterTime != null) {
+      sql.append(" and audit_time >= ? and (audit_time > ? or audit_id > ?)");
+      args.addAll(List.of(query.afterTime, query.afterTime, query.afterId));
+    }
+
+    if (query.userId != null) {
+      sql.append(" and user_id = ?");
+      args.add(query.userId);
+    }
+
+    if (query.statusClass != 0) {
+      sql.append(" and status >= ? and status < ?");
+      args.addAll(List.of(query.statusClass * 100, query.statusClass * 100 + 100));
+    }
+
+    if (query.method != null) {
+      sql.append(" and method = ?");
+      args.add(query.method);
+    }
+
+    if (query.pathPrefix != null) {
+      sql.append(" and path like ? escape '!'");
+      args.add(query.pathPrefix.replaceAll("[!%_]", "!$0") + "%");
+    }
+
+    sql.append(" order by audit_time, audit_id limit ?");
+    args.add(query.limit);
+
+    // rows are handed over as they are read rather than collected in a list
+    database.executeQuery(resultSet -> {
+      while (resultSet.next()) {
+        consumer.accept(readRecord(resultSet));
+      }
+
+      return null;
+    }, sql.toString(), args.toArray());
+  }
+
+  private String insert(int rows) {
+    var sql = new StringBuilder("insert into " + table + "(audit_id, method, path, user_id, status, audit_time, " +
+        "duration_us) values ");
+    for (var i = 0; i < rows; i++) {
+      sql.append(i == 0 ? "(?,?,?,?,?,?,?)" : ",(?,?,?,?,?,?,?)");
+    }
+
+    return sql.toString();
+  }
+
+  private static String truncate(String value, int maxLength) {
+    if (value == null || value.length() <= maxLength) {
+      return value;
+    }
+
+    // never keep half of a surrogate pair
+    var length = Character.isHighSurrogate(value.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+    return value.substring(0, length);
+  }
+
+  private static AuditRecord readRecord(ResultSet row) throws SQLException {
+    var durationMicros = row.getLong("duration_us");
+    if (row.wasNull()) {
+      durationMicros = AuditRecord.UNKNOWN_DURATION;
+    }
+
+    return new AuditRecord(row.getLong("audit_id"), row.getString("method"), row.getString("path"),
+        row.getString("user_id"), row.getInt("status"), row.getTimestamp("audit_time").toInstant(),
+        durationMicros);
+  }
+}
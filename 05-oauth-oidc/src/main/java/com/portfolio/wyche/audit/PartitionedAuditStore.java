@@ -0,0 +1,174 @@
+package com.portfolio.wyche.audit;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.dalesbred.Database;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Store the audit records in one table per UTC day (`audit_log_yyyymmdd`, with
+// the layout of `audit_log`), created on the first write of the day. Reads
+// only query the partitions overlapping the requested window, in time order,
+// and expired days are dropped as whole tables by a background job. Records
+// already past the retention (replayed from a spill file) are not written, so
+// that a dropped partition is never created again.
+// Partitions are created and dropped by the schema owner, the API user is
+// only granted select and insert on them
+public class PartitionedAuditStore implements AuditStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(PartitionedAuditStore.class);
+
+  private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+  private static final Pattern PARTITION = Pattern.compile("AUDIT_LOG_(\\d{8})");
+
+  private final Database database;
+  private final Database schemaOwner;
+  private final int retentionDays;
+  private final ConcurrentSkipListMap<LocalDate, DatabaseAuditStore> partitions = new ConcurrentSkipListMap<>();
+
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  public PartitionedAuditStore(Database database, Database schemaOwner, int retentionDays,
+      ScheduledExecutorService scheduler) {
+    this.database = database;
+    this.schemaOwner = schemaOwner;
+    this.retentionDays = retentionDays;
+
+    var tables = schemaOwner.findAll(String.class, "select table_name from information_schema.tables " +
+        "where table_schema = 'PUBLIC' and table_name like 'AUDIT!_LOG!_%' escape '!'");
+    for (var table : tables) {
+      var matcher = PARTITION.matcher(table);
+      if (matcher.matches()) {
+        var day = LocalDate.parse(matcher.group(1), DAY);
+        partitions.put(day, new DatabaseAuditStore(database, table(day)));
+      }
+    }
+    logger.info("Loaded {} audit partitions", partitions.size());
+
+    scheduler.scheduleWithFixedDelay(this::dropExpiredPartitions, 1, 60, TimeUnit.MINUTES);
+  }
+
+  // a batch may straddle midnight, each day is written in its own transaction
+  @Override
+  public void write(List<AuditRecord> records) {
+    var horizon = horizon();
+    var byDay = new LinkedHashMap<LocalDate, List<AuditRecord>>();
+    for (var record : records) {
+      var day = day(record.time);
+      if (day.isBefore(horizon)) {
+        expired.increment();
+        continue;
+      }
+
+      byDay.computeIfAbsent(day, d -> new ArrayList<>()).add(record);
+    }
+
+    for (var entry : byDay.entrySet()) {
+      partition(entry.getKey()).write(entry.getValue());
+    }
+  }
+
+  // partitions hold disjoint time ranges, so reading them in order and
+  // stopping once the page is full keeps the (time, id) order
+  @Override
+  public void read(AuditQuery query, Consumer<AuditRecord> consumer) {
+    var from = query.afterTime == null || query.afterTime.isBefore(query.from) ? query.from : query.afterTime;
+    if (!from.isBefore(query.to)) {
+      return;
+    }
+
+    var count = new int[1];
+    for (var partition : partitions.subMap(day(from), true, day(query.to.minusNanos(1)), true).values()) {
+      partition.read(query.withLimit(query.limit - count[0]), record -> {
+        count[0]++;
+        consumer.accept(record);
+      });
+      if (count[0] == query.limit) {
+        return;
+      }
+    }
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("partitions", partitions.size())
+        .put("oldest", partitions.isEmpty() ? null : partitions.firstKey().toString())
+        .put("retention_days", retentionDays)
+        .put("dropped", dropped.sum())
+        .put("expired_records", expired.sum());
+  }
+
+  private DatabaseAuditStore partition(LocalDate day) {
+    var partition = partitions.get(day);
+    if (partition != null) {
+      return partition;
+    }
+
+    // the columns are copied from `audit_log`, without their not null
+    // constraints nor the indexes
+    var table = table(day);
+    schemaOwner.withVoidTransaction(tx -> {
+      schemaOwner.update("create table if not exists " + table + " as " +
+          "select * from audit_log with no data");
+      for (var column : schemaOwner.findAll(String.class, "select column_name from information_schema.columns " +
+          "where table_schema = 'PUBLIC' and table_name = 'AUDIT_LOG' and is_nullable = 'NO'")) {
+        schemaOwner.update("alter table " + table + " alter column " + column + " set not null");
+      }
+      schemaOwner.update("create index if not exists " + table + "_time_idx on " + table +
+          "(audit_time, audit_id)");
+      schemaOwner.update("create index if not exists " + table + "_user_time_idx on " + table +
+          "(user_id, audit_time, audit_id)");
+      schemaOwner.update("grant select, insert on " + table + " to api_user");
+    });
+    logger.info("Created audit partition {}", table);
+
+    partition = new DatabaseAuditStore(database, table);
+    partitions.put(day, partition);
+
+    return partition;
+  }
+
+  // the partition of the current day is always kept, whatever the horizon. A
+  // partition stays readable until its table is dropped, and is retried on the
+  // next run if the drop fails
+  void dropExpiredPartitions() {
+    var horizon = horizon();
+
+    for (var day : partitions.headMap(horizon).keySet()) {
+      try {
+        schemaOwner.update("drop table if exists " + table(day));
+        partitions.remove(day);
+        dropped.increment();
+        logger.info("Dropped expired audit partition {}", table(day));
+      } catch (RuntimeException e) {
+        logger.error("Unable to drop audit partition {}", table(day), e);
+      }
+    }
+  }
+
+  private LocalDate horizon() {
+    return day(Instant.now()).minusDays(retentionDays);
+  }
+
+  private static LocalDate day(Instant time) {
+    return LocalDate.ofInstant(time, ZoneOffset.UTC);
+  }
+
+  private static String table(LocalDate day) {
+    return "audit_log_" + day.format(DAY);
+  }
+}
@@ -0,0 +1,375 @@
+package com.portfolio.wyche.audit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Append audit records to memory-mapped segment files instead of a table.
+// Records have a fixed layout of 176 bytes:
+// time (8, epoch micros) | audit id (8) | duration (8, micros) | status (4) |
+// method (1 + 10) | user (1 + 30) | path (1 + 100)
+// where strings are UTF-8 encoded, truncated and prefixed by their length
+// (255 for null). A zero time marks the end of the records of a segment.
+// A segment rolls once full or older than the max age, and keeps the time
+// range of each block of records as a sparse index: reads only scan the
+// segments and blocks overlapping the requested window. Expired segments are
+// deleted as whole files.
+// The segments outlive the in-memory database, whose audit id sequence
+// restarts with the process: `maxAuditId` is the highest id stored, for the
+// sequence to continue after it
+public class SegmentAuditStore implements AuditStore, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SegmentAuditStore.class);
+
+  private static final int RECORD_SIZE = 176;
+  private static final int BLOCK_SIZE = 1024;
+  private static final int METHOD_LENGTH = 10;
+  private static final int USER_LENGTH = 30;
+  private static final int PATH_LENGTH = 100;
+  private static final int NULL_LENGTH = 0xFF;
+
+  private static final int TIME = 0;
+  private static final int AUDIT_ID = 8;
+  private static final int DURATION = 16;
+  private static final int STATUS = 24;
+  private static final int METHOD = 28;
+  private static final int USER = METHOD + 1 + METHOD_LENGTH;
+  private static final int PATH = USER + 1 + USER_LENGTH;
+
+  private static final String SUFFIX = ".seg";
+  private static final Comparator<AuditRecord> ORDER = Comparator
+      .<AuditRecord, Instant>comparing(record -> record.time)
+      .thenComparingLong(record -> record.auditId);
+
+  private final Path directory;
+  private final int recordsPerSegment;
+  private final Duration maxSegmentAge;
+  private final Duration retention;
+  private final List<Segment> segments = new CopyOnWriteArrayList<>();
+  private volatile Segment active;
+
+  public SegmentAuditStore(Path directory, long maxSegmentBytes, Duration maxSegmentAge, Duration retention,
+      ScheduledExecutorService scheduler) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.recordsPerSegment = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE, maxSegmentBytes / RECORD_SIZE);
+    this.maxSegmentAge = maxSegmentAge;
+    this.retention = retention;
+
+    try (var files = Files.list(directory)) {
+      for (var file : files.filter(file -> file.toString().endsWith(SUFFIX)).sorted().toList()) {
+        segments.add(Segment.open(file));
+      }
+    }
+    logger.info("Loaded {} audit segments", segments.size());
+    // keep appending to the last segment, unless it has to roll anyway
+    if (!segments.isEmpty()) {
+      this.active = segments.get(segments.size() - 1);
+    }
+
+    scheduler.scheduleWithFixedDelay(this::deleteExpired, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void write(List<AuditRecord> records) {
+    for (var record : records) {
+      var segment = active;
+      if (segment == null || segment.isFull() || segment.isOlderThan(maxSegmentAge)) {
+        segment = roll(segment);
+      }
+
+      segment.append(record);
+    }
+  }
+
+  // records are appended in completion order, so the matching records are
+  // collected in a bounded heap keeping the first page in (time, id) order
+  @Override
+  public void read(AuditQuery query, Consumer<AuditRecord> consumer) {
+    var fromMicros = micros(query.afterTime == null || query.afterTime.isBefore(query.from)
+        ? query.from
+        : query.afterTime);
+    var toMicros = micros(query.to);
+    var page = new PriorityQueue<AuditRecord>(ORDER.reversed());
+    // once the page is full, the time of its last record: later records cannot
+    // be part of the page. Records are not strictly in time order (they are
+    // appended as requests complete), so later blocks are still checked
+    var lastMicros = Long.MAX_VALUE;
+
+    for (var segment : segments) {
+      // read the count first, the index entries of these records are visible
+      var count = segment.count;
+      if (count == 0 || segment.maxTime < fromMicros || segment.minTime >= toMicros
+          || segment.minTime > lastMicros) {
+        continue;
+      }
+
+      for (var block = 0; block * BLOCK_SIZE < count; block++) {
+        if (segment.blockMax[block] < fromMicros || segment.blockMin[block] >= toMicros
+            || segment.blockMin[block] > lastMicros) {
+          continue;
+        }
+
+        var end = Math.min(count, (block + 1) * BLOCK_SIZE);
+        for (var i = block * BLOCK_SIZE; i < end; i++) {
+          var time = segment.buffer.getLong(i * RECORD_SIZE + TIME);
+          if (time < fromMicros || time >= toMicros || time > lastMicros) {
+            continue;
+          }
+
+          var record = segment.read(i);
+          if (!query.matches(record)) {
+            continue;
+          }
+
+          page.add(record);
+          if (page.size() > query.limit) {
+            page.poll();
+          }
+          if (page.size() == query.limit) {
+            lastMicros = micros(page.peek().time);
+          }
+        }
+      }
+    }
+
+    var sorted = new ArrayList<>(page);
+    sorted.sort(ORDER);
+    sorted.forEach(consumer);
+  }
+
+  public long maxAuditId() {
+    var max = 0L;
+    for (var segment : segments) {
+      max = Math.max(max, segment.maxAuditId);
+    }
+
+    return max;
+  }
+
+  public JSONObject metrics() {
+    var records = 0L;
+    for (var segment : segments) {
+      records += segment.count;
+    }
+
+    return new JSONObject()
+        .put("segments", segments.size())
+        .put("records", records)
+        .put("mapped_bytes", (long) segments.size() * recordsPerSegment * RECORD_SIZE);
+  }
+
+  @Override
+  public void close() {
+    var segment = active;
+    if (segment != null) {
+      segment.buffer.force();
+    }
+  }
+
+  private Segment roll(Segment previous) {
+    if (previous != null) {
+      previous.buffer.force();
+    }
+
+    // segments are named after their creation time, and sorted by name
+    var created = System.currentTimeMillis();
+    if (previous != null && created <= previous.created) {
+      created = previous.created + 1;
+    }
+
+    try {
+      var segment = Segment.create(directory.resolve(String.format("%020d%s", created, SUFFIX)), created,
+          recordsPerSegment);
+      segments.add(segment);
+      active = segment;
+
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // an exception must not cancel the periodic deletion
+  private void deleteExpired() {
+    try {
+      deleteExpiredSegments();
+    } catch (RuntimeException e) {
+      logger.error("Unable to delete expired audit segments", e);
+    }
+  }
+
+  void deleteExpiredSegments() {
+    var horizon = micros(Instant.now().minus(retention));
+
+    for (var segment : segments) {
+      var newest = segment.count == 0 ? segment.created * 1000 : segment.maxTime;
+      if (segment == active || newest >= horizon) {
+        continue;
+      }
+
+      // the segment stays readable until its file is gone, the mapping is
+      // released once the segment is no longer referenced
+      try {
+        Files.deleteIfExists(segment.path);
+        segments.remove(segment);
+        logger.info("Deleted expired audit segment {}", segment.path.getFileName());
+      } catch (IOException e) {
+        logger.error("Unable to delete audit segment {}", segment.path, e);
+      }
+    }
+  }
+
+  private static long micros(Instant instant) {
+    return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+  }
+
+  private static class Segment {
+    private final Path path;
+    private final long created;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // time range of each block of records, and of the whole segment
+    private final long[] blockMin;
+    private final long[] blockMax;
+    private volatile long minTime = Long.MAX_VALUE;
+    private volatile long maxTime = Long.MIN_VALUE;
+    private volatile long maxAuditId;
+    // written by the writer thread only, once the record and its index entry
+    // are written
+    private volatile int count;
+
+    private Segment(Path path, long created, MappedByteBuffer buffer) {
+      this.path = path;
+      this.created = created;
+      this.buffer = buffer;
+      this.capacity = buffer.capacity() / RECORD_SIZE;
+
+      var blocks = (capacity + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      this.blockMin = new long[blocks];
+      this.blockMax = new long[blocks];
+      Arrays.fill(blockMin, Long.MAX_VALUE);
+      Arrays.fill(blockMax, Long.MIN_VALUE);
+    }
+
+    private static Segment create(Path path, long created, int capacity) throws IOException {
+      try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        return new Segment(path, created, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            (long) capacity * RECORD_SIZE));
+      }
+    }
+
+    // map an existing segment and rebuild its index
+    private static Segment open(Path path) throws IOException {
+      var name = path.getFileName().toString();
+      var created = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+
+      try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        var segment = new Segment(path, created, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        var count = 0;
+        while (count < segment.capacity && segment.buffer.getLong(count * RECORD_SIZE + TIME) != 0) {
+          segment.index(count, segment.buffer.getLong(count * RECORD_SIZE + TIME),
+              segment.buffer.getLong(count * RECORD_SIZE + AUDIT_ID));
+          count++;
+        }
+        segment.count = count;
+
+        return segment;
+      }
+    }
+
+    private boolean isFull() {
+      return count == capacity;
+    }
+
+    private boolean isOlderThan(Duration age) {
+      return System.currentTimeMillis() - created >= age.toMillis();
+    }
+
+    private void append(AuditRecord record) {
+      var offset = count * RECORD_SIZE;
+      var time = micros(record.time);
+
+      buffer.putLong(offset + AUDIT_ID, record.auditId);
+      buffer.putLong(offset + DURATION, record.durationMicros);
+      buffer.putInt(offset + STATUS, record.status);
+      putString(offset + METHOD, record.method, METHOD_LENGTH);
+      putString(offset + USER, record.userId, USER_LENGTH);
+      putString(offset + PATH, record.path, PATH_LENGTH);
+      // the time is written last, it marks the record as complete
+      buffer.putLong(offset + TIME, time);
+
+      index(count, time, record.auditId);
+      count++;
+    }
+
+    private void index(int record, long time, long auditId) {
+      var block = record / BLOCK_SIZE;
+      blockMin[block] = Math.min(blockMin[block], time);
+      blockMax[block] = Math.max(blockMax[block], time);
+      minTime = Math.min(minTime, time);
+      maxTime = Math.max(maxTime, time);
+      maxAuditId = Math.max(maxAuditId, auditId);
+    }
+
+    private AuditRecord read(int record) {
+      var offset = record * RECORD_SIZE;
+      var time = buffer.getLong(offset + TIME);
+
+      return new AuditRecord(buffer.getLong(offset + AUDIT_ID), getString(offset + METHOD),
+          getString(offset + PATH), getString(offset + USER), buffer.getInt(offset + STATUS),
+          Instant.EPOCH.plus(time, ChronoUnit.MICROS), buffer.getLong(offset + DURATION));
+    }
+
+    private void putString(int offset, String value, int maxLength) {
+      if (value == null) {
+        buffer.put(offset, (byte) NULL_LENGTH);
+        return;
+      }
+
+      var bytes = value.getBytes(UTF_8);
+      var length = Math.min(bytes.length, maxLength);
+      // do not cut a multi-byte character
+      while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+        length--;
+      }
+
+      buffer.put(offset, (byte) length);
+      buffer.put(offset + 1, bytes, 0, length);
+    }
+
+    private String getString(int offset) {
+      var length = Byte.toUnsignedInt(buffer.get(offset));
+      if (length == NULL_LENGTH) {
+        return null;
+      }
+
+      var bytes = new byte[length];
+      buffer.get(offset + 1, bytes);
+
+      return new String(bytes, UTF_8);
+    }
+  }
+}
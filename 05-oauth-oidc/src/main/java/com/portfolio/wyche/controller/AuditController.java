@@ -1,63 +1,154 @@
 package com.portfolio.wyche.controller;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
 
-import org.dalesbred.Database;
-import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.portfolio.wyche.audit.AuditLogWriter;
+import com.portfolio.wyche.audit.AuditQuery;
+import com.portfolio.wyche.audit.AuditRecord;
+import com.portfolio.wyche.audit.AuditStore;
 
 import spark.Request;
 import spark.Response;
 
 public class AuditController {
 
-  private final Database database;
+  private static final Logger logger = LoggerFactory.getLogger(AuditController.class);
+
+  private static final int DEFAULT_PAGE_SIZE = 20;
+  private static final int MAX_PAGE_SIZE = 1_000;
+
+  private final AuditStore auditStore;
+  private final AuditLogWriter auditLogWriter;
 
-  public AuditController(Database database) {
-    this.database = database;
+  public AuditController(AuditStore auditStore, AuditLogWriter auditLogWriter) {
+    this.auditStore = auditStore;
+    this.auditLogWriter = auditLogWriter;
   }
 
+  // only remember when the request started, the record is written once the
+  // response is complete
   public void auditRequestStart(Request request, Response response) {
-    database.withVoidTransaction(tx -> {
-      var auditId = database.findUniqueLong("select next value for audit_id_seq");
-      request.attribute("audit_id", auditId);
-
-      database.updateUnique(
-          "insert into audit_log(audit_id, method, path, user_id, audit_time) " +
-              "values(?,?,?,?, current_timestamp)",
-          auditId, request.requestMethod(), request.pathInfo(), request.attribute("subject"));
-    });
+    request.attribute("audit_start", Instant.now());
+    request.attribute("audit_start_nanos", System.nanoTime());
   }
 
+  // the records are queued and written in the background
   public void auditRequestEnd(Request request, Response response) {
-    database.updateUnique(
-        "insert into audit_log(audit_id, method, path, status, user_id, audit_time) " +
-            "values(?,?,?,?, current_timestamp)",
-        request.attribute("audit_id"), request.requestMethod(), request.pathInfo(), response.status(),
-        request.attribute("subject"));
+    Long startNanos = request.attribute("audit_start_nanos");
+    if (startNanos == null) {
+      // the request was rejected before reaching the audit filter (rate
+      // limited, unsupported content type, ...) or matched no route: it is
+      // recorded at its end time, without a duration
+      auditLogWriter.append(auditLogWriter.nextId(), request.requestMethod(), request.pathInfo(),
+          request.attribute("subject"), response.status(), Instant.now(), AuditRecord.UNKNOWN_DURATION);
+      return;
+    }
+
+    var durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    auditLogWriter.append(auditLogWriter.nextId(), request.requestMethod(), request.pathInfo(),
+        request.attribute("subject"), response.status(), request.attribute("audit_start"), durationMicros);
   }
 
-  public JSONArray readAuditLog(Request request, Response response) {
-    var since = Instant.now().minus(1, ChronoUnit.HOURS);
-    var logs = database.findAll(AuditController::recordToJson,
-        "select * " +
-            "from audit_log " +
-            "where audit_time >= ? limit 20",
-        since);
+  // stream a page of the audit log, filtered with the optional `from`, `to`,
+  // `user`, `status` (e.g. 4xx), `method` and `path` (prefix) parameters. The
+  // response ends with the cursor of the next page, if any. Records are only
+  // written once their request completes, see `AuditQuery` for the records a
+  // cursor can miss. A store failure once records have been sent ends the
+  // response with an `error` instead of the cursor
+  public Object readAuditLog(Request request, Response response) throws IOException {
+    var now = Instant.now();
+    var from = instant(request, "from", now.minus(1, ChronoUnit.HOURS));
+    var to = instant(request, "to", now);
+    var limit = request.queryParams("limit") == null
+        ? DEFAULT_PAGE_SIZE
+        : Integer.parseInt(request.queryParams("limit"));
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    var query = new AuditQuery(from, to, request.queryParams("user"), statusClass(request.queryParams("status")),
+        request.queryParams("method"), request.queryParams("path"), request.queryParams("cursor"), limit);
+
+    response.status(200);
+    response.type("application/json;charset=utf-8");
+    var out = new BufferedWriter(new OutputStreamWriter(response.raw().getOutputStream(), UTF_8));
+
+    // nothing is written before the first record, so that a query failing
+    // before it still gets an error status
+    var count = new int[1];
+    var last = new AuditRecord[1];
+    try {
+      auditStore.read(query, record -> {
+        try {
+          out.write(count[0]++ == 0 ? "{\"records\":[" : ",");
+          record.toJson().write(out);
+          last[0] = record;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (RuntimeException e) {
+      if (count[0] == 0) {
+        throw e;
+      }
 
-    return new JSONArray(logs);
+      // the status may already be sent, end with a marker the client can
+      // detect rather than with truncated JSON
+      logger.error("Unable to read the audit log after {} records", count[0], e);
+      out.write("],\"error\":\"unable to read the audit log\"}");
+      out.flush();
+      return "";
+    }
+
+    if (count[0] == 0) {
+      out.write("{\"records\":[");
+    }
+    out.write("]");
+    if (count[0] == limit) {
+      out.write(",\"next\":");
+      out.write(JSONObject.quote(AuditQuery.cursor(last[0])));
+    }
+    out.write("}");
+    out.flush();
+
+    return "";
   }
 
-  private static JSONObject recordToJson(ResultSet row) throws SQLException {
-    return new JSONObject()
-        .put("id", row.getLong("audit_id"))
-        .put("method", row.getString("method"))
-        .put("path", row.getString("path"))
-        .put("status", row.getInt("status"))
-        .put("user", row.getString("user_id"))
-        .put("time", row.getTimestamp("audit_time").toInstant());
+  private static Instant instant(Request request, String param, Instant defaultValue) {
+    var value = request.queryParams(param);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Instant.parse(value);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("invalid " + param + " time");
+    }
+  }
+
+  private static int statusClass(String status) {
+    if (status == null) {
+      return 0;
+    }
+
+    if (!status.matches("[1-5]xx")) {
+      throw new IllegalArgumentException("invalid status class");
+    }
+
+    return status.charAt(0) - '0';
   }
 }
@@ -8,15 +8,25 @@ import org.dalesbred.Database;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.portfolio.wyche.id.IdAllocator;
+import com.portfolio.wyche.permission.PermissionCache;
+
 import spark.Request;
 import spark.Response;
 
 public class SpaceController {
 
   private final Database database;
+  private final PermissionCache permissionCache;
+  private final IdAllocator spaceIds;
+  private final IdAllocator messageIds;
 
-  public SpaceController(Database database) {
+  public SpaceController(Database database, PermissionCache permissionCache, IdAllocator spaceIds,
+      IdAllocator messageIds) {
     this.database = database;
+    this.permissionCache = permissionCache;
+    this.spaceIds = spaceIds;
+    this.messageIds = messageIds;
   }
 
   public JSONObject createSpace(Request request, Response response) {
@@ -37,8 +47,8 @@ public class SpaceController {
       throw new IllegalArgumentException("owner must match authenticated user");
     }
 
-    return database.withTransaction(tx -> {
-      var spaceId = database.findUniqueLong("select next value for space_id_seq;");
+    var spaceId = spaceIds.next();
+    database.withVoidTransaction(tx -> {
 
       database.updateUnique(
           "insert into spaces(space_id, name, owner)" +
@@ -49,13 +59,16 @@ public class SpaceController {
           "insert into permissions(space_id, user_id, perms)" +
               "values(?,?,?);",
           spaceId, owner, "rwd");
-
-      response.status(201);
-      response.header("Location", "/spaces/" + spaceId);
-      return new JSONObject()
-          .put("name", spaceName)
-          .put("uri", "/spaces/" + spaceId);
     });
+    // only once committed, so that a concurrent lookup cannot cache the
+    // permissions from before the grant
+    permissionCache.invalidate(spaceId, owner);
+
+    response.status(201);
+    response.header("Location", "/spaces/" + spaceId);
+    return new JSONObject()
+        .put("name", spaceName)
+        .put("uri", "/spaces/" + spaceId);
   }
 
   public JSONObject postMessage(Request request, Response response) {
@@ -76,18 +89,15 @@ public class SpaceController {
       throw new IllegalArgumentException("message is too long");
     }
 
-    return database.withTransaction(tx -> {
-      var msgId = database.findUniqueLong("select next value for msg_id_seq;");
-
-      database.updateUnique("insert into messages(space_id, msg_id, msg_time, author, msg_text) " +
-          "values(?,?, current_timestamp, ?,?)",
-          spaceId, msgId, user, message);
+    var msgId = messageIds.next();
+    database.updateUnique("insert into messages(space_id, msg_id, msg_time, author, msg_text) " +
+        "values(?,?, current_timestamp, ?,?)",
+        spaceId, msgId, user, message);
 
-      response.status(201);
-      var uri = "/spaces/" + spaceId + "/messages/" + msgId;
-      response.header("Location", uri);
-      return new JSONObject().put("uri", uri);
-    });
+    response.status(201);
+    var uri = "/spaces/" + spaceId + "/messages/" + msgId;
+    response.header("Location", uri);
+    return new JSONObject().put("uri", uri);
   }
 
   public Message readMessage(Request request, Response response) {
@@ -136,6 +146,7 @@ public class SpaceController {
     database.updateUnique("insert into permissions(space_id, user_id, perms) " +
         "values(?,?,?)",
         spaceId, userToAdd, perms);
+    permissionCache.invalidate(spaceId, userToAdd);
 
     response.status(200);
     return new JSONObject()
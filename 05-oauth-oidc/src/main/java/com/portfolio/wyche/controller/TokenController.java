@@ -6,6 +6,7 @@ import java.time.temporal.ChronoUnit;
 
 import org.json.JSONObject;
 
+import com.portfolio.wyche.permission.PermissionCache;
 import com.portfolio.wyche.token.TokenStore;
 
 import spark.Request;
@@ -14,15 +15,26 @@ import spark.Response;
 public class TokenController {
 
   private final TokenStore tokenStore;
+  // null unless the permissions are embedded in the tokens
+  private final PermissionCache permissionCache;
 
   public TokenController(TokenStore tokenStore) {
+    this(tokenStore, null);
+  }
+
+  public TokenController(TokenStore tokenStore, PermissionCache permissionCache) {
     this.tokenStore = tokenStore;
+    this.permissionCache = permissionCache;
   }
 
   public JSONObject login(Request request, Response response) {
     String subject = request.attribute("subject");
     var expiry = now().plus(10, ChronoUnit.MINUTES);
     var token = new TokenStore.Token(expiry, subject);
+    if (permissionCache != null) {
+      permissionCache.snapshot(subject, token.attributes);
+    }
+
     var tokenId = tokenStore.create(request, token);
 
     response.status(201);
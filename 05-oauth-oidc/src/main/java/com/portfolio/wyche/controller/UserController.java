@@ -3,12 +3,30 @@ package com.portfolio.wyche.controller;
 import static spark.Spark.halt;
 
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.dalesbred.Database;
+import org.dalesbred.DatabaseException;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import com.lambdaworks.crypto.SCryptUtil;
+import com.portfolio.wyche.filter.DispatchTable;
+import com.portfolio.wyche.password.LoginThrottle;
+import com.portfolio.wyche.password.PasswordHasher;
+import com.portfolio.wyche.password.PasswordHashingExecutor;
+import com.portfolio.wyche.permission.PermissionCache;
 
 import spark.Filter;
 import spark.Request;
@@ -17,10 +35,25 @@ import spark.Response;
 public class UserController {
 
   private final String USERNAME_PATTERN = "[a-zA-Z][a-zA-Z0-9]{1,29}";
+  private static final int MAX_BULK_SIZE = 5_000;
   private final Database database;
+  private final PasswordHasher passwordHasher;
+  private final PasswordHashingExecutor hashingExecutor;
+  private final LoginThrottle loginThrottle;
+  private final ForkJoinPool provisioningPool;
+  private final Duration bulkTimeout;
+  private final PermissionCache permissionCache;
 
-  public UserController(Database database) {
+  public UserController(Database database, PasswordHasher passwordHasher, PasswordHashingExecutor hashingExecutor,
+      LoginThrottle loginThrottle, ForkJoinPool provisioningPool, Duration bulkTimeout,
+      PermissionCache permissionCache) {
     this.database = database;
+    this.passwordHasher = passwordHasher;
+    this.hashingExecutor = hashingExecutor;
+    this.loginThrottle = loginThrottle;
+    this.provisioningPool = provisioningPool;
+    this.bulkTimeout = bulkTimeout;
+    this.permissionCache = permissionCache;
   }
 
   public JSONObject registerUser(Request request, Response response) throws Exception {
@@ -36,11 +69,8 @@ public class UserController {
       throw new IllegalArgumentException("password must be at least 8 characters");
     }
 
-    // recommended parameters for 2019:
-    // N (work factor): 32768
-    // r (block size): 8
-    // p (parallelization factor): 1
-    var hash = SCryptUtil.scrypt(password, 32768, 8, 1);
+    // the algorithm and its parameters are calibrated at startup
+    var hash = hashingExecutor.execute(() -> passwordHasher.hash(password));
 
     database.updateUnique("insert into users(user_id, pw_hash) " +
         "values(?,?)",
@@ -52,6 +82,129 @@ public class UserController {
         .put("username", username);
   }
 
+  // register a batch of users: the passwords are hashed in parallel on the
+  // provisioning pool and the users inserted in a single batched transaction.
+  // The response reports the outcome of each user in the order of the request
+  public JSONObject registerUsers(Request request, Response response) throws Exception {
+    var users = new JSONObject(request.body()).getJSONArray("users");
+
+    if (users.length() > MAX_BULK_SIZE) {
+      throw new IllegalArgumentException("at most " + MAX_BULK_SIZE + " users per request");
+    }
+
+    var results = new JSONArray();
+    var accepted = new ArrayList<Integer>();
+    var usernames = new HashSet<String>();
+    for (var i = 0; i < users.length(); i++) {
+      var user = users.optJSONObject(i);
+      var username = user == null ? null : user.optString("username", null);
+      var password = user == null ? null : user.optString("password", null);
+      var result = new JSONObject().put("username", username);
+      results.put(result);
+
+      if (username == null || !username.matches(USERNAME_PATTERN)) {
+        result.put("status", 400).put("error", "invalid username");
+      } else if (password == null || password.length() < 8) {
+        result.put("status", 400).put("error", "password must be at least 8 characters");
+      } else if (!usernames.add(username)) {
+        result.put("status", 409).put("error", "duplicate username");
+      } else {
+        accepted.add(i);
+      }
+    }
+
+    // a batch that does not complete in time is abandoned: the remaining
+    // passwords are not hashed and no user is inserted
+    var abandoned = new AtomicBoolean();
+    var hashing = provisioningPool.submit(() -> accepted.parallelStream()
+        .map(i -> {
+          if (abandoned.get()) {
+            throw new CancellationException();
+          }
+          return passwordHasher.hash(users.getJSONObject(i).getString("password"));
+        })
+        .toList());
+
+    List<String> hashes;
+    try {
+      hashes = hashing.get(bulkTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      abandoned.set(true);
+      throw new RejectedExecutionException("bulk registration timed out");
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+
+    var rows = new ArrayList<List<?>>(accepted.size());
+    for (var i = 0; i < accepted.size(); i++) {
+      var username = users.getJSONObject(accepted.get(i)).getString("username");
+      rows.add(List.of(username, hashes.get(i), username));
+    }
+
+    var inserted = insertUsers(rows);
+
+    var created = 0;
+    for (var i = 0; i < accepted.size(); i++) {
+      var result = results.getJSONObject(accepted.get(i));
+      if (inserted[i] > 0) {
+        result.put("status", 201);
+        created++;
+      } else {
+        result.put("status", 409).put("error", "username already exists");
+      }
+    }
+
+    response.status(created == users.length() ? 201 : 207);
+    return new JSONObject()
+        .put("created", created)
+        .put("users", results);
+  }
+
+  // existing users are skipped rather than failing the whole batch. A user
+  // registered concurrently between the check and the insert still violates
+  // the primary key and fails the batch, which is then retried one user at a
+  // time so that only the conflicting users are reported
+  private int[] insertUsers(List<List<?>> rows) {
+    if (rows.isEmpty()) {
+      return new int[0];
+    }
+
+    var sql = "insert into users(user_id, pw_hash) " +
+        "select ?, ? " +
+        "where not exists (select 1 from users where user_id = ?)";
+
+    try {
+      return database.withTransaction(tx -> database.updateBatch(sql, rows));
+    } catch (DatabaseException e) {
+      if (!isUniqueViolation(e)) {
+        throw e;
+      }
+    }
+
+    var inserted = new int[rows.size()];
+    for (var i = 0; i < rows.size(); i++) {
+      try {
+        inserted[i] = database.update(sql, rows.get(i).toArray());
+      } catch (DatabaseException e) {
+        if (!isUniqueViolation(e)) {
+          throw e;
+        }
+      }
+    }
+
+    return inserted;
+  }
+
+  private static boolean isUniqueViolation(DatabaseException e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException sqlException && "23505".equals(sqlException.getSQLState())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   public void authenticate(Request request, Response response) {
     var authHeader = request.headers("Authorization");
     if (authHeader == null || !authHeader.startsWith("Basic ")) {
@@ -74,17 +227,49 @@ public class UserController {
       throw new IllegalArgumentException("invalid username");
     }
 
+    // reject attempts against an account or from an address with too many
+    // recent failures before spending any time on the password hash
+    var retryAfter = loginThrottle.retryAfter(username, request.ip());
+    if (!retryAfter.isZero()) {
+      response.header("Retry-After", String.valueOf((retryAfter.toMillis() + 999) / 1000));
+      halt(429);
+    }
+
     // lookup the user in the database and extract the stored hash
     var hash = database.findOptional(String.class, "select pw_hash " +
         "from users " +
         "where user_id = ?",
         username);
 
-    // Scrypt extract the salt and parameters from the stored password hash,
-    // then hash the supplied password with the same salt and parameters,
-    // and finally compare the hashed password with the stored hash
-    if (hash.isPresent() && SCryptUtil.check(password, hash.get())) {
+    // the hasher extracts the algorithm, salt and parameters from the stored
+    // password hash, then hashes the supplied password with the same salt and
+    // parameters, and finally compares the hashed password with the stored hash
+    if (hash.isPresent() && hashingExecutor.execute(() -> passwordHasher.verify(password, hash.get()))) {
       request.attribute("subject", username);
+
+      loginThrottle.succeeded(username);
+
+      if (passwordHasher.needsRehash(hash.get())) {
+        rehash(username, password);
+      }
+    } else {
+      loginThrottle.failed(username, request.ip());
+    }
+  }
+
+  // upgrade a hash produced with outdated parameters now that the password is
+  // known
+  private void rehash(String username, String password) {
+    try {
+      var hash = hashingExecutor.execute(() -> passwordHasher.hash(password));
+
+      database.update("update users " +
+          "set pw_hash = ? " +
+          "where user_id = ?",
+          hash, username);
+    } catch (RejectedExecutionException e) {
+      // keep the outdated hash while the hashing pool is saturated, it is
+      // upgraded on a later login
     }
   }
 
@@ -96,6 +281,8 @@ public class UserController {
   }
 
   public Filter requirePermission(String method, String permission) {
+    var required = PermissionCache.mask(permission);
+
     return (request, response) -> {
       if (!method.equalsIgnoreCase(request.requestMethod())) {
         return;
@@ -103,18 +290,14 @@ public class UserController {
 
       requireAuthentication(request, response);
 
-      var spaceId = Long.parseLong(request.params(":spaceId"));
+      var spaceId = Long.parseLong(DispatchTable.param(request, ":spaceId"));
       var username = (String) request.attribute("subject");
 
-      var perms = database
-          .findOptional(String.class,
-              "select perms " +
-                  "from permissions " +
-                  "where space_id = ? and user_id = ?",
-              spaceId, username)
-          .orElse("");
+      // authorize from the permissions snapshot in the token when present
+      var perms = permissionCache.permissions(spaceId, username,
+          request.attribute(PermissionCache.CLAIM), request.attribute(PermissionCache.VERSION_CLAIM));
 
-      if (!perms.contains(permission)) {
+      if ((perms & required) != required) {
         halt(403);
       }
     };
@@ -0,0 +1,296 @@
+package com.portfolio.wyche.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import spark.Filter;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Spark;
+import spark.utils.urldecoding.UrlDecode;
+
+// Replace the chain of global and path scoped `before` filters, which Spark
+// matches one by one against every request, with a single filter running a
+// pipeline compiled at startup for each (method, route): the pipeline holds
+// exactly the filters applying to the route, in registration order.
+// Requests that do not match any route (e.g. preflight requests or unknown
+// paths) fall back to matching every filter.
+// Paths are matched like Spark does (see `RouteEntry`): on the raw, still
+// encoded, request URI split into its non-empty segments, where a trailing
+// slash must match and path parameters are decoded
+public class DispatchTable implements Filter {
+
+  private static final String PARAMS = "dispatch.params";
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final List<Pipeline> routes = new ArrayList<>();
+  // routes by "METHOD /path", unless an earlier dynamic route matches the path
+  private final Map<String, Pipeline> staticRoutes = new HashMap<>();
+  // every route of a method, in registration order
+  private final Map<String, List<Pipeline>> methodRoutes = new HashMap<>();
+
+  // filter applying to every request
+  public DispatchTable before(Filter filter) {
+    return before(null, null, filter);
+  }
+
+  // filter applying to every method on the path
+  public DispatchTable before(String path, Filter filter) {
+    return before(null, path, filter);
+  }
+
+  public DispatchTable before(String method, String path, Filter filter) {
+    entries.add(new Entry(method, path, filter));
+    return this;
+  }
+
+  public DispatchTable get(String path, Route route) {
+    Spark.get(path, route);
+    return route("GET", path);
+  }
+
+  public DispatchTable post(String path, Route route) {
+    Spark.post(path, route);
+    return route("POST", path);
+  }
+
+  public DispatchTable delete(String path, Route route) {
+    Spark.delete(path, route);
+    return route("DELETE", path);
+  }
+
+  public DispatchTable route(String method, String path) {
+    if (path.endsWith("/") || path.endsWith("*")) {
+      throw new IllegalArgumentException("route " + path + " cannot be compiled");
+    }
+
+    routes.add(new Pipeline(method, path));
+    return this;
+  }
+
+  // build the pipeline of every route, must be called once all the filters and
+  // routes are registered
+  public DispatchTable compile() {
+    for (var route : routes) {
+      var filters = new ArrayList<Filter>();
+      for (var entry : entries) {
+        if (entry.appliesTo(route)) {
+          filters.add(entry.filter);
+        }
+      }
+
+      route.filters = filters.toArray(Filter[]::new);
+      var earlier = methodRoutes.computeIfAbsent(route.method, method -> new ArrayList<>());
+      if (route.isStatic && earlier.stream().noneMatch(other -> other.matches(route.path, route.segments))) {
+        staticRoutes.put(route.method + " " + route.path, route);
+      }
+      earlier.add(route);
+    }
+
+    return this;
+  }
+
+  public void install() {
+    compile();
+    Spark.before(this);
+  }
+
+  @Override
+  public void handle(Request request, Response response) throws Exception {
+    var method = request.requestMethod();
+    var path = request.uri();
+
+    var pipeline = lookup(method, path);
+    if (pipeline == null) {
+      dispatchUnmatched(request, response, method, path);
+      return;
+    }
+
+    if (!pipeline.isStatic) {
+      request.attribute(PARAMS, params(pipeline.segments, segments(path)));
+    }
+
+    for (var filter : pipeline.filters) {
+      filter.handle(request, response);
+    }
+  }
+
+  // the filters run for a request, null when no route matches
+  public Filter[] filters(String method, String path) {
+    var pipeline = lookup(method, path);
+
+    return pipeline == null ? null : pipeline.filters;
+  }
+
+  // path parameter of the current request, filters registered with Spark
+  // directly get them from the request
+  public static String param(Request request, String name) {
+    Map<String, String> params = request.attribute(PARAMS);
+
+    return params == null ? request.params(name) : params.get(name.toLowerCase(Locale.ROOT));
+  }
+
+  private Pipeline lookup(String method, String path) {
+    var pipeline = staticRoutes.get(method + " " + path);
+    if (pipeline != null) {
+      return pipeline;
+    }
+
+    var candidates = methodRoutes.get(method);
+    if (candidates == null) {
+      return null;
+    }
+
+    var segments = segments(path);
+    for (var route : candidates) {
+      if (route.matches(path, segments)) {
+        return route;
+      }
+    }
+
+    return null;
+  }
+
+  private void dispatchUnmatched(Request request, Response response, String method, String path)
+      throws Exception {
+    var segments = segments(path);
+    for (var entry : entries) {
+      if (entry.method != null && !entry.method.equalsIgnoreCase(method)) {
+        continue;
+      }
+
+      if (entry.path == null) {
+        entry.filter.handle(request, response);
+      } else if (matches(entry.path, entry.segments, path, segments)) {
+        request.attribute(PARAMS, params(entry.segments, segments));
+        entry.filter.handle(request, response);
+      }
+    }
+  }
+
+  // the non-empty segments of the path
+  private static String[] segments(String path) {
+    return Arrays.stream(path.split("/")).filter(segment -> !segment.isEmpty()).toArray(String[]::new);
+  }
+
+  // whether the pattern matches the path, as in Spark: a `:param` or `*`
+  // segment matches any segment, and a pattern ending with `*` also matches
+  // any further segments
+  private static boolean matches(String pattern, String[] patternSegments, String path, String[] pathSegments) {
+    var wildcard = pattern.endsWith("*");
+    if (!wildcard && pattern.endsWith("/") != path.endsWith("/")) {
+      return false;
+    }
+
+    if (pattern.equals(path)) {
+      return true;
+    }
+
+    if (patternSegments.length != pathSegments.length) {
+      // a trailing slash counts as an empty segment for a trailing `*`
+      var pathLength = pathSegments.length;
+      if (pathLength == patternSegments.length - 1 && path.endsWith("/")) {
+        pathLength += 2;
+      }
+
+      if (!wildcard || patternSegments.length >= pathLength) {
+        return false;
+      }
+    }
+
+    for (var i = 0; i < patternSegments.length; i++) {
+      var segment = patternSegments[i];
+      if (i == patternSegments.length - 1 && wildcard && segment.equals("*")) {
+        return true;
+      }
+
+      var pathSegment = i < pathSegments.length ? pathSegments[i] : "";
+      if (!segment.startsWith(":") && !segment.equals("*") && !segment.equals(pathSegment)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static Map<String, String> params(String[] pattern, String[] path) {
+    var params = new HashMap<String, String>();
+    for (var i = 0; i < pattern.length && i < path.length; i++) {
+      if (pattern[i].startsWith(":")) {
+        params.put(pattern[i].toLowerCase(Locale.ROOT), UrlDecode.path(path[i]));
+      }
+    }
+
+    return params;
+  }
+
+  private static class Entry {
+    // null for any method
+    private final String method;
+    // null for any path
+    private final String path;
+    private final String[] segments;
+    private final Filter filter;
+
+    private Entry(String method, String path, Filter filter) {
+      this.method = method;
+      this.path = path;
+      this.segments = path == null ? null : segments(path);
+      this.filter = filter;
+    }
+
+    // the requests of a route never end with a slash, and have as many
+    // segments as the route
+    private boolean appliesTo(Pipeline route) {
+      if (method != null && !method.equalsIgnoreCase(route.method)) {
+        return false;
+      }
+
+      if (path == null) {
+        return true;
+      }
+
+      // a literal segment would only apply to some requests of the route, which
+      // cannot be decided at startup
+      for (var i = 0; i < segments.length && i < route.segments.length; i++) {
+        if (segments[i].startsWith(":") || segments[i].equals("*")) {
+          continue;
+        }
+
+        if (route.segments[i].startsWith(":")) {
+          throw new IllegalArgumentException("filter " + path + " is more specific than route " + route.path);
+        }
+
+        if (!segments[i].equals(route.segments[i])) {
+          return false;
+        }
+      }
+
+      return matches(path, segments, route.path, route.segments);
+    }
+  }
+
+  private static class Pipeline {
+    private final String method;
+    private final String path;
+    private final String[] segments;
+    private final boolean isStatic;
+    private Filter[] filters;
+
+    private Pipeline(String method, String path) {
+      this.method = method;
+      this.path = path;
+      this.segments = segments(path);
+      this.isStatic = Arrays.stream(segments).noneMatch(segment -> segment.startsWith(":") || segment.equals("*"));
+    }
+
+    private boolean matches(String path, String[] pathSegments) {
+      return DispatchTable.matches(this.path, segments, path, pathSegments);
+    }
+  }
+}
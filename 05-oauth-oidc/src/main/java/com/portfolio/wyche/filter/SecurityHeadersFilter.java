@@ -0,0 +1,44 @@
+package com.portfolio.wyche.filter;
+
+import spark.Filter;
+import spark.Request;
+import spark.Response;
+
+// apply standard http security headers to all response
+public class SecurityHeadersFilter implements Filter {
+
+  @Override
+  public void handle(Request request, Response response) {
+    // explicitly indicate he content-type
+    // explicitly indicate the UTF-8 character-encoding
+    response.type("application/json;charset=utf-8");
+    // Set to DENY to prevent the API responses being loaded in a frame or iframe.
+    response.header("X-Frame-Options", "DENY");
+    // turn-off browser built-in protection against reflected XSS attacks
+    // XSS protections in browser have been found to cause security vulnerabilities
+    // OWASP project recommends always disabling the filter, as follows:
+    response.header("X-XSS-Protection", "0");
+    // Controls whether browsers and proxies can cache content in the response and
+    // for how long
+    response.header("Cache-Control", "no-store");
+    // reduce the scope for XSS attacks by restricting where scripts can be loaded
+    // from and what they can do
+    // - `default-src 'none'`: prevents the response from loading any scripts or
+    // resources
+    // - `frame-ancestors 'none'`: replacement for X-Frame-Options, this prevents
+    // the response being loaded into an iframe
+    // - `sandbox n/a`: disables scripts and other potentially dangerous content
+    // from being executed
+    response.header("Content-Security-Policy", "default-src 'none'; frame-ancestors 'none'; sandbox");
+    // remove server information leak (jetty webserver version)
+    response.header("Server", "");
+    // Set to `nosniff` to prevent the browser guessing the correct Content-Type
+    // response.header("X-Content-Type-Options", "nosniff");
+    // HTTP Strict-Transport-Security (HSTS) header instruct the browser to always
+    // use the HTTPS version in the future
+    // Note: on localhost it prevents from running the development server over plain
+    // HTTP
+    // response.header("Strict-Transport-Security", "max-age=31536000");
+  }
+
+}
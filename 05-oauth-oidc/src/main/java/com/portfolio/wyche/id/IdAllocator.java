@@ -0,0 +1,81 @@
+package com.portfolio.wyche.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dalesbred.Database;
+import org.json.JSONObject;
+
+// Hand out ids from blocks reserved from a database sequence (hi/lo): each
+// value of the sequence reserves `blockSize` ids, which are then allocated
+// in-process with an atomic increment. Ids stay unique across restarts and
+// instances since every block comes from the sequence, the ids left in a
+// block when the process stops are simply never used
+public class IdAllocator {
+
+  private final Database database;
+  private final String sequence;
+  private final int blockSize;
+  private final AtomicReference<Block> current = new AtomicReference<>(new Block(0, 0));
+  private final LongAdder blocks = new LongAdder();
+
+  public IdAllocator(Database database, String sequence, int blockSize) {
+    if (!sequence.matches("[a-z_]+")) {
+      throw new IllegalArgumentException("invalid sequence name");
+    }
+
+    this.database = database;
+    this.sequence = sequence;
+    this.blockSize = blockSize;
+  }
+
+  public long next() {
+    while (true) {
+      var block = current.get();
+      var id = block.next.getAndIncrement();
+      if (id < block.end) {
+        return id;
+      }
+
+      reserve(block);
+    }
+  }
+
+  // restart the sequence so that every id allocated from now on is above the
+  // given one, e.g. one stored outside of the database. Altering the sequence
+  // needs the rights of its owner
+  public synchronized void restartAfter(Database owner, long id) {
+    owner.update("alter sequence " + sequence + " restart with " + (id / blockSize + 1));
+    // the current block may hold ids below the given one
+    current.set(new Block(0, 0));
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("sequence", sequence)
+        .put("block_size", blockSize)
+        .put("blocks", blocks.sum());
+  }
+
+  // only one thread reserves the next block, the others retry on it
+  private synchronized void reserve(Block exhausted) {
+    if (current.get() != exhausted) {
+      return;
+    }
+
+    var hi = database.findUniqueLong("select next value for " + sequence);
+    blocks.increment();
+    current.set(new Block(hi * blockSize, hi * blockSize + blockSize));
+  }
+
+  private static class Block {
+    private final AtomicLong next;
+    private final long end;
+
+    private Block(long start, long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+    }
+  }
+}
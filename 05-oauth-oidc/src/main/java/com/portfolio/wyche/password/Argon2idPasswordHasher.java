@@ -0,0 +1,111 @@
+package com.portfolio.wyche.password;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+// Argon2id in the PHC string format `$argon2id$v=19$m=memory,t=iterations,p=parallelism$salt$hash`
+public class Argon2idPasswordHasher implements PasswordHasher {
+
+  private static final String PREFIX = "$argon2id$v=19$";
+  private static final int SALT_LENGTH = 16;
+  private static final int HASH_LENGTH = 32;
+
+  private final int memoryKiB;
+  private final int iterations;
+  private final int parallelism;
+  private final SecureRandom secureRandom;
+
+  public Argon2idPasswordHasher(int memoryKiB, int iterations, int parallelism) {
+    this.memoryKiB = memoryKiB;
+    this.iterations = iterations;
+    this.parallelism = parallelism;
+    this.secureRandom = new SecureRandom();
+  }
+
+  // OWASP recommends at least 19 MiB of memory and 2 iterations, the number of
+  // iterations is scaled to the target
+  public static int calibrate(int iterations, Duration target, double tolerance) {
+    return PasswordHasher.calibrate(t -> new Argon2idPasswordHasher(19 * 1024, t, 1), iterations, 2, 64, target,
+        tolerance);
+  }
+
+  @Override
+  public String hash(String password) {
+    var salt = new byte[SALT_LENGTH];
+    secureRandom.nextBytes(salt);
+    var hash = argon2(password, salt, memoryKiB, iterations, parallelism);
+
+    return PREFIX + params() + "$" + encode(salt) + "$" + encode(hash);
+  }
+
+  @Override
+  public boolean supports(String storedHash) {
+    return storedHash.startsWith(PREFIX);
+  }
+
+  @Override
+  public boolean verify(String password, String storedHash) {
+    var parts = storedHash.split("\\$");
+    if (!supports(storedHash) || parts.length != 6) {
+      return false;
+    }
+
+    int m = 0, t = 0, p = 0;
+    for (var param : parts[3].split(",")) {
+      var value = Integer.parseInt(param.substring(2));
+      switch (param.charAt(0)) {
+        case 'm' -> m = value;
+        case 't' -> t = value;
+        case 'p' -> p = value;
+        default -> throw new IllegalArgumentException("invalid argon2 parameter");
+      }
+    }
+
+    var salt = Base64.getDecoder().decode(parts[4]);
+    var expected = Base64.getDecoder().decode(parts[5]);
+
+    return MessageDigest.isEqual(expected, argon2(password, salt, m, t, p));
+  }
+
+  @Override
+  public boolean needsRehash(String storedHash) {
+    return !storedHash.startsWith(PREFIX + params() + "$");
+  }
+
+  private String params() {
+    return "m=" + memoryKiB + ",t=" + iterations + ",p=" + parallelism;
+  }
+
+  private static byte[] argon2(String password, byte[] salt, int memoryKiB, int iterations, int parallelism) {
+    var params = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+        .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+        .withMemoryAsKB(memoryKiB)
+        .withIterations(iterations)
+        .withParallelism(parallelism)
+        .withSalt(salt)
+        .build();
+    var generator = new Argon2BytesGenerator();
+    generator.init(params);
+
+    var hash = new byte[HASH_LENGTH];
+    generator.generateBytes(password.getBytes(UTF_8), hash);
+
+    return hash;
+  }
+
+  private static String encode(byte[] data) {
+    return Base64.getEncoder().withoutPadding().encodeToString(data);
+  }
+
+  @Override
+  public String toString() {
+    return "argon2id(" + params() + ")";
+  }
+}
@@ -0,0 +1,50 @@
+package com.portfolio.wyche.password;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Hash new passwords with the current hasher, while still verifying hashes
+// produced by any of the other known hashers so that they can be upgraded on
+// the next successful login
+public class DelegatingPasswordHasher implements PasswordHasher {
+
+  private final PasswordHasher current;
+  private final List<PasswordHasher> hashers;
+
+  public DelegatingPasswordHasher(PasswordHasher current, List<PasswordHasher> others) {
+    this.current = current;
+    this.hashers = new ArrayList<>(others);
+    this.hashers.add(0, current);
+  }
+
+  @Override
+  public String hash(String password) {
+    return current.hash(password);
+  }
+
+  @Override
+  public boolean supports(String storedHash) {
+    return hashers.stream().anyMatch(hasher -> hasher.supports(storedHash));
+  }
+
+  @Override
+  public boolean verify(String password, String storedHash) {
+    for (var hasher : hashers) {
+      if (hasher.supports(storedHash)) {
+        return hasher.verify(password, storedHash);
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean needsRehash(String storedHash) {
+    return !current.supports(storedHash) || current.needsRehash(storedHash);
+  }
+
+  @Override
+  public String toString() {
+    return current.toString();
+  }
+}
@@ -0,0 +1,109 @@
+package com.portfolio.wyche.password;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+// Count failed logins per username and per client address, and block further
+// attempts with an exponential backoff once the threshold is reached, so that
+// a credential stuffing burst is rejected before reaching the password hasher.
+// Counters are held in segmented caches and forgotten after a quiet period
+public class LoginThrottle {
+
+  private static final int STRIPES = 16;
+
+  private final int threshold;
+  private final long baseDelayNanos;
+  private final long maxDelayNanos;
+  private final Cache<String, Failures> usernames;
+  private final Cache<String, Failures> addresses;
+  private final LongAdder throttled = new LongAdder();
+
+  public LoginThrottle(int threshold, Duration baseDelay, Duration maxDelay, Duration forgetAfter, long maxSize) {
+    this.threshold = threshold;
+    this.baseDelayNanos = baseDelay.toNanos();
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.usernames = newCache(forgetAfter, maxSize);
+    this.addresses = newCache(forgetAfter, maxSize);
+  }
+
+  private static Cache<String, Failures> newCache(Duration forgetAfter, long maxSize) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(STRIPES)
+        .maximumSize(maxSize)
+        .expireAfterAccess(forgetAfter)
+        .build();
+  }
+
+  // the remaining time the client must wait before trying again, zero when the
+  // attempt can proceed
+  public Duration retryAfter(String username, String address) {
+    var now = System.nanoTime();
+    var remaining = Math.max(remaining(usernames, username, now), remaining(addresses, address, now));
+    if (remaining > 0) {
+      throttled.increment();
+    }
+
+    return Duration.ofNanos(remaining);
+  }
+
+  public void failed(String username, String address) {
+    failures(usernames, username).failed();
+    failures(addresses, address).failed();
+  }
+
+  // a successful login only clears the username, the failures from the same
+  // address against other accounts still count
+  public void succeeded(String username) {
+    usernames.invalidate(username);
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("tracked_usernames", usernames.size())
+        .put("tracked_addresses", addresses.size())
+        .put("throttled", throttled.sum());
+  }
+
+  private static long remaining(Cache<String, Failures> cache, String key, long now) {
+    var failures = cache.getIfPresent(key);
+
+    return failures == null ? 0 : Math.max(0, failures.blockedUntil.get() - now);
+  }
+
+  private Failures failures(Cache<String, Failures> cache, String key) {
+    try {
+      return cache.get(key, Failures::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private class Failures {
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong blockedUntil = new AtomicLong(System.nanoTime());
+
+    private void failed() {
+      var failures = count.incrementAndGet();
+      if (failures < threshold) {
+        return;
+      }
+
+      // double the delay for every failure beyond the threshold
+      var shift = Math.min(failures - threshold, 30);
+      var delay = Math.min(maxDelayNanos, baseDelayNanos << shift);
+      if (delay < 0) {
+        delay = maxDelayNanos;
+      }
+
+      blockedUntil.set(System.nanoTime() + delay);
+    }
+  }
+}
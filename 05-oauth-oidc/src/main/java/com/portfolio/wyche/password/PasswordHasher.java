@@ -0,0 +1,56 @@
+package com.portfolio.wyche.password;
+
+import java.time.Duration;
+import java.util.function.IntFunction;
+
+// Hash and verify passwords with a self-describing encoding: the stored hash
+// carries the algorithm and its parameters, so hashes produced with older or
+// different parameters can be detected and upgraded
+public interface PasswordHasher {
+
+  String hash(String password);
+
+  // whether the stored hash was produced by this algorithm
+  boolean supports(String storedHash);
+
+  boolean verify(String password, String storedHash);
+
+  // whether the stored hash uses other parameters than the current ones
+  boolean needsRehash(String storedHash);
+
+  // starting from the given cost (at least the minimum), double it for as long
+  // as the verification time of the next step stays within the target on this
+  // hardware. The next step must fit with a margin of `tolerance` (e.g., 0.25
+  // for 25%): a cost close to the target would otherwise flip between two steps
+  // with the measurement noise, and every change of cost makes all the stored
+  // hashes outdated. The cost is never lowered
+  static int calibrate(IntFunction<? extends PasswordHasher> factory, int cost, int minCost, int maxCost,
+      Duration target, double tolerance) {
+    return calibrateCost(c -> time(factory.apply(c)), cost, minCost, maxCost, target, tolerance);
+  }
+
+  // the same with the verification time of each cost given by a function
+  static int calibrateCost(IntFunction<Duration> verificationTime, int cost, int minCost, int maxCost,
+      Duration target, double tolerance) {
+    cost = Math.max(cost, minCost);
+    var limit = target.toNanos() / (1 + tolerance);
+    // the time of the next step is estimated from the current one, as
+    // measuring it could take far longer than the target
+    while (cost <= maxCost / 2 && verificationTime.apply(cost).toNanos() * 2 <= limit) {
+      cost *= 2;
+    }
+
+    return cost;
+  }
+
+  private static Duration time(PasswordHasher hasher) {
+    var hash = hasher.hash("calibration-password");
+    // warm up before measuring
+    hasher.verify("calibration-password", hash);
+
+    var start = System.nanoTime();
+    hasher.verify("calibration-password", hash);
+
+    return Duration.ofNanos(System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,88 @@
+package com.portfolio.wyche.password;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+// Run password hashing (deliberately slow and CPU bound) on a dedicated pool
+// so that a burst of logins cannot starve the request threads serving other
+// endpoints. When the queue is full, tasks are rejected immediately with a
+// `RejectedExecutionException`
+public class PasswordHashingExecutor {
+
+  private final ThreadPoolExecutor executor;
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder queueWaitNanos = new LongAdder();
+  private final LongAdder hashNanos = new LongAdder();
+
+  public PasswordHashingExecutor(int threads, int queueCapacity) {
+    var count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        runnable -> {
+          var thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  public <T> T execute(Callable<T> task) {
+    var submitted = System.nanoTime();
+    var future = submit(() -> {
+      var started = System.nanoTime();
+      queueWaitNanos.add(started - submitted);
+
+      try {
+        return task.call();
+      } finally {
+        hashNanos.add(System.nanoTime() - started);
+        completed.increment();
+      }
+    });
+
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public JSONObject metrics() {
+    var count = Math.max(1, completed.sum());
+
+    return new JSONObject()
+        .put("threads", executor.getMaximumPoolSize())
+        .put("active", executor.getActiveCount())
+        .put("queued", executor.getQueue().size())
+        .put("completed", completed.sum())
+        .put("rejected", rejected.sum())
+        .put("avg_queue_wait_ms", TimeUnit.NANOSECONDS.toMillis(queueWaitNanos.sum() / count))
+        .put("avg_hash_ms", TimeUnit.NANOSECONDS.toMillis(hashNanos.sum() / count));
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    try {
+      return executor.submit(task);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw new RejectedExecutionException("too many pending password hashing requests");
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.portfolio.wyche.password;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.function.IntUnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Keep the calibrated cost of each algorithm in a properties file so that it
+// survives restarts: calibration measures the hardware, so its result varies
+// from one start to the next, while any change of cost makes every stored hash
+// outdated and rehashed on the next login
+public class PasswordParameters {
+
+  private static final Logger logger = LoggerFactory.getLogger(PasswordParameters.class);
+
+  private final Path file;
+  private final Properties properties = new Properties();
+
+  public PasswordParameters(Path file) throws IOException {
+    this.file = file;
+
+    if (Files.exists(file)) {
+      try (var reader = Files.newBufferedReader(file)) {
+        properties.load(reader);
+      }
+    }
+  }
+
+  // the calibration receives the stored cost (0 on the first start) and
+  // returns the cost to use, which is stored when it changed
+  public synchronized int cost(String algorithm, IntUnaryOperator calibration) throws IOException {
+    var key = algorithm + ".cost";
+    var stored = Integer.parseInt(properties.getProperty(key, "0"));
+    var cost = calibration.applyAsInt(stored);
+
+    if (cost != stored) {
+      properties.setProperty(key, String.valueOf(cost));
+      try (var writer = Files.newBufferedWriter(file)) {
+        properties.store(writer, "calibrated password hashing costs");
+      }
+      logger.info("Calibrated {} cost from {} to {}", algorithm, stored, cost);
+    }
+
+    return cost;
+  }
+}
@@ -0,0 +1,84 @@
+package com.portfolio.wyche.password;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// PBKDF2 with HMAC-SHA256 in the `$pbkdf2-sha256$i=iterations$salt$hash` format
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+  private static final String PREFIX = "$pbkdf2-sha256$";
+  private static final int SALT_LENGTH = 16;
+  private static final int HASH_LENGTH = 32;
+
+  private final int iterations;
+  private final SecureRandom secureRandom;
+
+  public Pbkdf2PasswordHasher(int iterations) {
+    this.iterations = iterations;
+    this.secureRandom = new SecureRandom();
+  }
+
+  // OWASP recommends at least 600,000 iterations for PBKDF2-HMAC-SHA256
+  public static int calibrate(int iterations, Duration target, double tolerance) {
+    return PasswordHasher.calibrate(Pbkdf2PasswordHasher::new, iterations, 600_000, 1 << 24, target, tolerance);
+  }
+
+  @Override
+  public String hash(String password) {
+    var salt = new byte[SALT_LENGTH];
+    secureRandom.nextBytes(salt);
+    var hash = pbkdf2(password, salt, iterations);
+
+    return PREFIX + "i=" + iterations + "$" + encode(salt) + "$" + encode(hash);
+  }
+
+  @Override
+  public boolean supports(String storedHash) {
+    return storedHash.startsWith(PREFIX);
+  }
+
+  @Override
+  public boolean verify(String password, String storedHash) {
+    var parts = storedHash.split("\\$");
+    if (!supports(storedHash) || parts.length != 5) {
+      return false;
+    }
+
+    var storedIterations = Integer.parseInt(parts[2].substring("i=".length()));
+    var salt = Base64.getDecoder().decode(parts[3]);
+    var expected = Base64.getDecoder().decode(parts[4]);
+
+    return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+  }
+
+  @Override
+  public boolean needsRehash(String storedHash) {
+    return !storedHash.startsWith(PREFIX + "i=" + iterations + "$");
+  }
+
+  private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+    var spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+    try {
+      return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private static String encode(byte[] data) {
+    return Base64.getEncoder().withoutPadding().encodeToString(data);
+  }
+
+  @Override
+  public String toString() {
+    return "pbkdf2-sha256(i=" + iterations + ")";
+  }
+}
@@ -0,0 +1,63 @@
+package com.portfolio.wyche.password;
+
+import java.time.Duration;
+
+import com.lambdaworks.crypto.SCryptUtil;
+
+// scrypt hashes in the `$s0$params$salt$hash` format of SCryptUtil, where
+// params is log2(N) << 16 | r << 8 | p in hexadecimal
+public class ScryptPasswordHasher implements PasswordHasher {
+
+  private final int n;
+  private final int r;
+  private final int p;
+
+  public ScryptPasswordHasher(int n, int r, int p) {
+    this.n = n;
+    this.r = r;
+    this.p = p;
+  }
+
+  // N is a power of 2 between 2^15 (recommended for 2019) and 2^17 (128 MiB of
+  // memory per hash with r = 8)
+  public static int calibrate(int n, Duration target, double tolerance) {
+    return PasswordHasher.calibrate(cost -> new ScryptPasswordHasher(cost, 8, 1), n, 1 << 15, 1 << 17, target,
+        tolerance);
+  }
+
+  @Override
+  public String hash(String password) {
+    return SCryptUtil.scrypt(password, n, r, p);
+  }
+
+  @Override
+  public boolean supports(String storedHash) {
+    return storedHash.startsWith("$s0$");
+  }
+
+  @Override
+  public boolean verify(String password, String storedHash) {
+    return SCryptUtil.check(password, storedHash);
+  }
+
+  @Override
+  public boolean needsRehash(String storedHash) {
+    var parts = storedHash.split("\\$");
+    if (!supports(storedHash) || parts.length != 5) {
+      return true;
+    }
+
+    var params = Long.parseLong(parts[2], 16);
+
+    return params != ((long) log2(n) << 16 | r << 8 | p);
+  }
+
+  private static int log2(int n) {
+    return 31 - Integer.numberOfLeadingZeros(n);
+  }
+
+  @Override
+  public String toString() {
+    return "scrypt(N=" + n + ", r=" + r + ", p=" + p + ")";
+  }
+}
@@ -0,0 +1,213 @@
+package com.portfolio.wyche.permission;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dalesbred.Database;
+import org.json.JSONObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+// Cache the permissions of a user on a space, looked up on every message read
+// or post. Entries are held per space, keyed by username, so that a lookup does
+// not build a composite key, and hold the permissions as a bitmask. Grants must
+// call `invalidate` once committed, entries also expire after a TTL as a
+// backstop for grants made outside of this process.
+// The permissions of a user can also be snapshot into token attributes, the
+// snapshot is trusted only while no grant to that user happened since
+public class PermissionCache {
+
+  public static final int READ = 1;
+  public static final int WRITE = 2;
+  public static final int DELETE = 4;
+
+  public static final String CLAIM = "perms";
+  public static final String VERSION_CLAIM = "perms_ver";
+  // users with more grants are not snapshot to keep the tokens small
+  private static final int MAX_SNAPSHOT_SIZE = 64;
+
+  private final Database database;
+  // spaces not looked up for a TTL are dropped with all their entries
+  private final Cache<Long, Cache<String, Byte>> spaces;
+  private final long maxUsersPerSpace;
+  private final Duration ttl;
+  // bumped on every invalidation so that a lookup racing with a grant does not
+  // keep the permissions read before the grant in the cache
+  private final AtomicLong generation = new AtomicLong();
+  // versions are taken from a clock starting at the current time so that
+  // snapshots from before a restart are never trusted
+  private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+  private final long startedAt = clock.get();
+  private final ConcurrentMap<String, Long> watermarks = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder snapshotHits = new LongAdder();
+  private final LongAdder staleSnapshots = new LongAdder();
+
+  public PermissionCache(Database database, long maxSpaces, long maxUsersPerSpace, Duration ttl) {
+    this.database = database;
+    this.spaces = CacheBuilder.newBuilder()
+        .maximumSize(maxSpaces)
+        .expireAfterAccess(ttl)
+        .build();
+    this.maxUsersPerSpace = maxUsersPerSpace;
+    this.ttl = ttl;
+  }
+
+  public int permissions(long spaceId, String username) {
+    var users = users(spaceId);
+    var cached = users.getIfPresent(username);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+
+    misses.increment();
+
+    var generation = this.generation.get();
+    int perms = database
+        .findOptional(String.class,
+            "select perms " +
+                "from permissions " +
+                "where space_id = ? and user_id = ?",
+            spaceId, username)
+        .map(PermissionCache::mask)
+        .orElse(0);
+
+    // an invalidation between the check and the put could remove the entry
+    // before it is put, so the generation is checked again once it is in the
+    // cache: every invalidation bumps the generation before removing the entry
+    if (this.generation.get() == generation) {
+      users.put(username, (byte) perms);
+
+      if (this.generation.get() != generation) {
+        users.invalidate(username);
+      }
+    }
+
+    return perms;
+  }
+
+  // the permissions from the token snapshot when it is still current,
+  // otherwise from the cache or the database
+  public int permissions(long spaceId, String username, String claim, String version) {
+    if (claim == null || version == null) {
+      return permissions(spaceId, username);
+    }
+
+    if (Long.parseLong(version) < watermarks.getOrDefault(username, startedAt)) {
+      staleSnapshots.increment();
+      return permissions(spaceId, username);
+    }
+
+    snapshotHits.increment();
+    return decode(claim, spaceId);
+  }
+
+  // encode the permissions of the user on every space as "spaceId:mask,..."
+  // and the version of the snapshot into the attributes
+  public void snapshot(String username, Map<String, String> attributes) {
+    var version = clock.get();
+    var grants = database.findAll(Grant.class,
+        "select space_id, perms " +
+            "from permissions " +
+            "where user_id = ?",
+        username);
+
+    if (grants.size() > MAX_SNAPSHOT_SIZE) {
+      return;
+    }
+
+    var claim = new StringBuilder();
+    for (var grant : grants) {
+      if (claim.length() > 0) {
+        claim.append(',');
+      }
+
+      claim.append(grant.spaceId).append(':').append(mask(grant.perms));
+    }
+
+    attributes.put(CLAIM, claim.toString());
+    attributes.put(VERSION_CLAIM, Long.toString(version));
+  }
+
+  public void invalidate(long spaceId, String username) {
+    generation.incrementAndGet();
+    var users = spaces.getIfPresent(spaceId);
+    if (users != null) {
+      users.invalidate(username);
+    }
+    watermarks.put(username, clock.updateAndGet(now -> Math.max(now + 1, System.currentTimeMillis())));
+  }
+
+  public JSONObject metrics() {
+    var size = 0L;
+    for (var users : spaces.asMap().values()) {
+      size += users.size();
+    }
+    var hits = this.hits.sum();
+    var lookups = hits + misses.sum();
+
+    return new JSONObject()
+        .put("spaces", spaces.size())
+        .put("size", size)
+        .put("hits", hits)
+        .put("misses", lookups - hits)
+        .put("hit_rate", lookups == 0 ? 1.0 : (double) hits / lookups)
+        .put("snapshot_hits", snapshotHits.sum())
+        .put("stale_snapshots", staleSnapshots.sum());
+  }
+
+  // convert a permission string such as "rw" into a bitmask
+  public static int mask(String perms) {
+    var mask = 0;
+    for (var i = 0; i < perms.length(); i++) {
+      switch (perms.charAt(i)) {
+        case 'r' -> mask |= READ;
+        case 'w' -> mask |= WRITE;
+        case 'd' -> mask |= DELETE;
+        default -> throw new IllegalArgumentException("invalid permissions");
+      }
+    }
+
+    return mask;
+  }
+
+  private static int decode(String claim, long spaceId) {
+    for (var grant : claim.split(",")) {
+      var separator = grant.indexOf(':');
+      if (separator > 0 && Long.parseLong(grant, 0, separator, 10) == spaceId) {
+        return Integer.parseInt(grant, separator + 1, grant.length(), 10);
+      }
+    }
+
+    return 0;
+  }
+
+  private Cache<String, Byte> users(long spaceId) {
+    try {
+      return spaces.get(spaceId, () -> CacheBuilder.newBuilder()
+          .maximumSize(maxUsersPerSpace)
+          .expireAfterWrite(ttl)
+          .build());
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static class Grant {
+    private final long spaceId;
+    private final String perms;
+
+    public Grant(long spaceId, String perms) {
+      this.spaceId = spaceId;
+      this.perms = perms;
+    }
+  }
+}
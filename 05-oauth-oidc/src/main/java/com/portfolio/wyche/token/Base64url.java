@@ -1,5 +1,6 @@
 package com.portfolio.wyche.token;
 
+import java.util.Arrays;
 import java.util.Base64;
 
 public class Base64url {
@@ -7,11 +8,72 @@ public class Base64url {
   private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
   private static final Base64.Decoder decoder = Base64.getUrlDecoder();
 
+  private static final int[] alphabet = new int[128];
+  static {
+    Arrays.fill(alphabet, -1);
+    var chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (var i = 0; i < chars.length(); i++) {
+      alphabet[chars.charAt(i)] = i;
+    }
+  }
+
   public static String encode(byte[] data) {
     return encoder.encodeToString(data);
   }
 
+  public static byte[] encodeToBytes(byte[] data) {
+    return encoder.encode(data);
+  }
+
   public static byte[] decode(String encoded) {
     return decoder.decode(encoded);
   }
+
+  public static byte[] decode(byte[] src, int offset, int length) {
+    var dst = new byte[decodedLength(src, offset, length)];
+    decode(src, offset, length, dst);
+
+    return dst;
+  }
+
+  // decode a range of base64url encoded bytes (padding is optional) into the
+  // destination buffer, and return the number of bytes written
+  public static int decode(byte[] src, int offset, int length, byte[] dst) {
+    var decodedLength = decodedLength(src, offset, length);
+    if (dst.length < decodedLength) {
+      throw new IllegalArgumentException("output buffer too small");
+    }
+
+    var bits = 0;
+    var bitCount = 0;
+    var written = 0;
+    for (var i = offset; written < decodedLength; i++) {
+      var c = src[i];
+      var value = c >= 0 ? alphabet[c] : -1;
+      if (value == -1) {
+        throw new IllegalArgumentException("Illegal base64url character " + Integer.toHexString(c & 0xff));
+      }
+
+      bits = (bits << 6) | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        dst[written++] = (byte) (bits >> bitCount);
+      }
+    }
+
+    return written;
+  }
+
+  private static int decodedLength(byte[] src, int offset, int length) {
+    for (var padding = 0; padding < 2 && length > 0 && src[offset + length - 1] == '='; padding++) {
+      length--;
+    }
+
+    if (length % 4 == 1) {
+      throw new IllegalArgumentException("Invalid base64url length");
+    }
+
+    return length * 6 / 8;
+  }
 }
@@ -0,0 +1,148 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import spark.Request;
+
+// Self-contained token using a compact binary layout instead of JSON claims,
+// sealed with AES-GCM:
+// version (1) | nonce (12) | AES-GCM(claims) with a 16 bytes tag
+// where the claims are:
+// expiry (8, epoch seconds) | username | attribute count (2) | (key | value)*
+// and each string is UTF-8 encoded, prefixed by its length (2)
+public class BinaryTokenStore implements SecureTokenStore {
+
+  private static final byte VERSION = 1;
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+
+  private final SecretKey encKey;
+  private final SecureRandom secureRandom;
+
+  public BinaryTokenStore(SecretKey encKey) {
+    this.encKey = encKey;
+    this.secureRandom = new SecureRandom();
+  }
+
+  @Override
+  public String create(Request request, Token token) {
+    var nonce = new byte[NONCE_LENGTH];
+    secureRandom.nextBytes(nonce);
+    var claims = encodeClaims(token);
+
+    try {
+      var cipher = CryptoProvider.cipher(TRANSFORMATION);
+      cipher.init(Cipher.ENCRYPT_MODE, encKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(new byte[] { VERSION });
+
+      var sealed = new byte[1 + NONCE_LENGTH + cipher.getOutputSize(claims.length)];
+      sealed[0] = VERSION;
+      System.arraycopy(nonce, 0, sealed, 1, NONCE_LENGTH);
+      cipher.doFinal(claims, 0, claims.length, sealed, 1 + NONCE_LENGTH);
+
+      return Base64url.encode(sealed);
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public Optional<Token> read(Request request, String tokenId) {
+    byte[] sealed;
+    try {
+      sealed = Base64url.decode(tokenId);
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+
+    if (sealed.length < 1 + NONCE_LENGTH + TAG_LENGTH || sealed[0] != VERSION) {
+      return Optional.empty();
+    }
+
+    try {
+      var cipher = CryptoProvider.cipher(TRANSFORMATION);
+      cipher.init(Cipher.DECRYPT_MODE, encKey, new GCMParameterSpec(TAG_LENGTH * 8, sealed, 1, NONCE_LENGTH));
+      cipher.updateAAD(sealed, 0, 1);
+      var claims = cipher.doFinal(sealed, 1 + NONCE_LENGTH, sealed.length - 1 - NONCE_LENGTH);
+
+      var buffer = ByteBuffer.wrap(claims);
+      var token = decodeClaims(buffer);
+      if (buffer.hasRemaining()) {
+        return Optional.empty();
+      }
+
+      return Optional.of(token);
+    } catch (GeneralSecurityException | BufferUnderflowException e) {
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public void revoke(Request request, String tokenId) {
+    // the tokens are not stored anywhere and stay valid up to their expiry
+    throw new UnsupportedOperationException();
+  }
+
+  private static byte[] encodeClaims(Token token) {
+    var bytes = new ByteArrayOutputStream(64);
+
+    try (var out = new DataOutputStream(bytes)) {
+      out.writeLong(token.expiry.getEpochSecond());
+      writeString(out, token.username);
+      out.writeShort(token.attributes.size());
+      for (var attr : token.attributes.entrySet()) {
+        writeString(out, attr.getKey());
+        writeString(out, attr.getValue());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    var bytes = value.getBytes(UTF_8);
+    if (bytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("token claim too long");
+    }
+
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static Token decodeClaims(ByteBuffer claims) {
+    var expiry = Instant.ofEpochSecond(claims.getLong());
+    var token = new Token(expiry, readString(claims));
+    var count = Short.toUnsignedInt(claims.getShort());
+
+    for (var i = 0; i < count; i++) {
+      token.attributes.put(readString(claims), readString(claims));
+    }
+
+    return token;
+  }
+
+  private static String readString(ByteBuffer claims) {
+    var length = Short.toUnsignedInt(claims.getShort());
+    var bytes = new byte[length];
+    claims.get(bytes);
+
+    return new String(bytes, UTF_8);
+  }
+}
@@ -0,0 +1,102 @@
+package com.portfolio.wyche.token;
+
+import static com.portfolio.wyche.token.CookieTokenStore.sha256;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import spark.Request;
+
+// Keep successfully validated tokens in memory so that hot tokens skip the
+// full read chain (database lookup, HMAC, JWE decryption...) of the delegate
+public class CachingTokenStore implements TokenStore {
+
+  private final TokenStore delegate;
+  private final Duration maxTtl;
+  private final Cache<String, CachedToken> cache;
+  // bumped on every revocation so that a read racing with a revocation does
+  // not put the token it read before the revocation in the cache
+  private final AtomicLong generation = new AtomicLong();
+
+  public CachingTokenStore(TokenStore delegate, Duration maxTtl, long maxSize) {
+    this.delegate = delegate;
+    this.maxTtl = maxTtl;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(maxTtl)
+        .build();
+  }
+
+  @Override
+  public String create(Request request, Token token) {
+    return delegate.create(request, token);
+  }
+
+  @Override
+  public Optional<Token> read(Request request, String tokenId) {
+    var key = hash(tokenId);
+    var now = Instant.now();
+    var cached = cache.getIfPresent(key);
+
+    if (cached != null) {
+      if (now.isBefore(cached.validUntil)) {
+        return Optional.of(cached.token);
+      }
+
+      cache.invalidate(key);
+    }
+
+    var generation = this.generation.get();
+    var token = delegate.read(request, tokenId);
+    token.ifPresent(t -> {
+      // never hold a token past its own expiry, expired tokens are left to the
+      // delegate so that the caller can report them
+      var validUntil = min(t.expiry, now.plus(maxTtl));
+      // a revocation between the read and the put could invalidate the entry
+      // before it is put, so the generation is checked again once it is in
+      // the cache: every revocation bumps it before invalidating
+      if (now.isBefore(validUntil) && this.generation.get() == generation) {
+        cache.put(key, new CachedToken(t, validUntil));
+
+        if (this.generation.get() != generation) {
+          cache.invalidate(key);
+        }
+      }
+    });
+
+    return token;
+  }
+
+  @Override
+  public void revoke(Request request, String tokenId) {
+    // invalidate first so that a revoked token is never served from the cache,
+    // even if the delegate fails
+    generation.incrementAndGet();
+    cache.invalidate(hash(tokenId));
+    delegate.revoke(request, tokenId);
+  }
+
+  private String hash(String tokenId) {
+    return Base64url.encode(sha256(tokenId));
+  }
+
+  private static Instant min(Instant a, Instant b) {
+    return a.isBefore(b) ? a : b;
+  }
+
+  private static class CachedToken {
+    private final Token token;
+    private final Instant validUntil;
+
+    private CachedToken(Token token, Instant validUntil) {
+      this.token = token;
+      this.validUntil = validUntil;
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.portfolio.wyche.token;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Stop calling a remote service after repeated failures:
+// - CLOSED: calls go through, consecutive failures are counted
+// - OPEN: calls fail fast until the open duration has elapsed
+// - HALF_OPEN: a single probe call decides whether to close or re-open
+// Each call acquires a permit and reports its outcome with it, so that calls
+// started before the circuit opened do not change its state
+public class CircuitBreaker {
+
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final Duration openDuration;
+
+  private State state = State.CLOSED;
+  private int failures;
+  private Instant openedAt;
+  private Permit probe;
+
+  private final LongAdder opened = new LongAdder();
+  private final LongAdder halfOpened = new LongAdder();
+  private final LongAdder closed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  // empty when the call must fail fast
+  public synchronized Optional<Permit> tryAcquire() {
+    if (state == State.OPEN) {
+      if (Instant.now().isBefore(openedAt.plus(openDuration))) {
+        rejected.increment();
+        return Optional.empty();
+      }
+
+      transition(State.HALF_OPEN);
+    }
+
+    if (state == State.HALF_OPEN) {
+      // only one probe at a time, everything else keeps failing fast
+      if (probe != null) {
+        rejected.increment();
+        return Optional.empty();
+      }
+
+      probe = new Permit();
+      return Optional.of(probe);
+    }
+
+    return Optional.of(new Permit());
+  }
+
+  public synchronized void onSuccess(Permit permit) {
+    if (permit == probe) {
+      probe = null;
+      failures = 0;
+      transition(State.CLOSED);
+    } else if (state == State.CLOSED) {
+      failures = 0;
+    }
+    // a late success of a call started before the circuit opened must not
+    // close it, only the probe does
+  }
+
+  public synchronized void onFailure(Permit permit) {
+    if (permit == probe) {
+      probe = null;
+      open();
+    } else if (state == State.CLOSED && ++failures >= failureThreshold) {
+      open();
+    }
+    // a late failure of a call started before the circuit opened does not
+    // extend the open period
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+
+  public synchronized JSONObject metrics() {
+    return new JSONObject()
+        .put("state", state)
+        .put("opened", opened.sum())
+        .put("half_opened", halfOpened.sum())
+        .put("closed", closed.sum())
+        .put("rejected", rejected.sum());
+  }
+
+  private void open() {
+    openedAt = Instant.now();
+    transition(State.OPEN);
+  }
+
+  private void transition(State next) {
+    logger.warn("Circuit breaker {} transition {} -> {}", name, state, next);
+    state = next;
+
+    switch (next) {
+      case OPEN -> opened.increment();
+      case HALF_OPEN -> halfOpened.increment();
+      case CLOSED -> closed.increment();
+    }
+  }
+
+  public static final class Permit {
+    private Permit() {
+    }
+  }
+}
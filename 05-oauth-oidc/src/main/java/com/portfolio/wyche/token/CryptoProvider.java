@@ -0,0 +1,65 @@
+package com.portfolio.wyche.token;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+// Hand out reusable crypto primitives so that the provider lookup is not paid
+// on every token operation. `Mac` and `Cipher` instances are not thread-safe,
+// one is kept per thread and per algorithm (or transformation): the maps only
+// hold the few algorithms used by the stores, never the keys, so rotated keys
+// are not retained
+public class CryptoProvider {
+
+  private static final ConcurrentMap<String, ThreadLocal<KeyedMac>> macs = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, ThreadLocal<Cipher>> ciphers = new ConcurrentHashMap<>();
+
+  // the returned instance is initialised with the key, and is reset after each
+  // `doFinal`. It is only initialised again when the thread last used it with
+  // another key
+  public static Mac mac(Key key) {
+    var keyed = macs.computeIfAbsent(key.getAlgorithm(), a -> ThreadLocal.withInitial(() -> new KeyedMac(a))).get();
+    if (keyed.key != key) {
+      try {
+        keyed.mac.init(key);
+      } catch (GeneralSecurityException e) {
+        throw new RuntimeException(e);
+      }
+      keyed.key = key;
+    }
+
+    return keyed.mac;
+  }
+
+  // the returned instance must be initialised by the caller, as the IV changes
+  // for each operation
+  public static Cipher cipher(String transformation) {
+    return ciphers.computeIfAbsent(transformation, t -> ThreadLocal.withInitial(() -> newCipher(t))).get();
+  }
+
+  private static Cipher newCipher(String transformation) {
+    try {
+      return Cipher.getInstance(transformation);
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class KeyedMac {
+    private final Mac mac;
+    // the key the instance is initialised with, only referenced by the thread
+    private Key key;
+
+    private KeyedMac(String algorithm) {
+      try {
+        this.mac = Mac.getInstance(algorithm);
+      } catch (GeneralSecurityException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
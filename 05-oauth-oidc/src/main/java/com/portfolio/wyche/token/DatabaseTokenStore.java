@@ -5,9 +5,13 @@ import static com.portfolio.wyche.token.CookieTokenStore.sha256;
 import java.security.SecureRandom;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import org.dalesbred.Database;
 import org.json.JSONObject;
@@ -20,15 +24,57 @@ public class DatabaseTokenStore implements ConfidentialTokenStore {
 
   private static final Logger logger = LoggerFactory.getLogger(DatabaseTokenStore.class);
 
+  // expired tokens are deleted in small batches, with a pause between batches
+  // so that logins and token validations are never blocked for long
+  private static final int REAPER_BATCH_SIZE = 500;
+  private static final Duration REAPER_PAUSE = Duration.ofMillis(50);
+  // the interval between runs shrinks while there is a backlog of expired
+  // tokens, and grows back when runs find nothing to delete
+  private static final Duration REAPER_MIN_INTERVAL = Duration.ofSeconds(30);
+  private static final Duration REAPER_MAX_INTERVAL = Duration.ofMinutes(10);
+
   private final Database database;
   private final SecureRandom secureRandom;
-
+  private final ScheduledExecutorService scheduler;
+  private final int batchSize;
+  private final Duration pause;
+  private final Duration minInterval;
+  private final Duration maxInterval;
+
+  // the reaper runs one batch at a time on the scheduler, each run scheduling
+  // the next one, so only the interval is read by other threads
+  private volatile Duration reaperInterval;
+  private long batchesInRun;
+  private final LongAdder rowsSelected = new LongAdder();
+  private final LongAdder rowsDeleted = new LongAdder();
+  private final LongAdder pauseMillis = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  // expired tokens are only deleted on demand
   public DatabaseTokenStore(Database database) {
+    this(database, null);
+  }
+
+  // expired tokens are deleted in the background on the given scheduler, which
+  // is owned (and shut down) by the caller
+  public DatabaseTokenStore(Database database, ScheduledExecutorService scheduler) {
+    this(database, scheduler, REAPER_BATCH_SIZE, REAPER_PAUSE, REAPER_MIN_INTERVAL, REAPER_MAX_INTERVAL);
+  }
+
+  DatabaseTokenStore(Database database, ScheduledExecutorService scheduler, int batchSize, Duration pause,
+      Duration minInterval, Duration maxInterval) {
     this.database = database;
     this.secureRandom = new SecureRandom();
-
-    Executors.newSingleThreadScheduledExecutor()
-        .scheduleAtFixedRate(this::deleteExpiredTokens, 10, 10, TimeUnit.MINUTES);
+    this.scheduler = scheduler;
+    this.batchSize = batchSize;
+    this.pause = pause;
+    this.minInterval = minInterval;
+    this.maxInterval = maxInterval;
+    this.reaperInterval = maxInterval;
+
+    if (scheduler != null) {
+      scheduleReaper(reaperInterval);
+    }
   }
 
   private String randomId() {
@@ -86,8 +132,95 @@ public class DatabaseTokenStore implements ConfidentialTokenStore {
   }
 
   public void deleteExpiredTokens() {
-    var deleted = database.update("delete from tokens " +
-        "where expiry < current_timestamp");
+    var deleted = 0;
+    int batch;
+    do {
+      batch = deleteExpiredBatch();
+      deleted += batch;
+    } while (batch == batchSize);
+
     logger.info("Delete {} expired tokens", deleted);
   }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("rows_selected", rowsSelected.sum())
+        .put("rows_deleted", rowsDeleted.sum())
+        .put("pause_ms", pauseMillis.sum())
+        .put("errors", errors.sum())
+        .put("interval_ms", reaperInterval.toMillis());
+  }
+
+  private void scheduleReaper(Duration delay) {
+    if (!scheduler.isShutdown()) {
+      scheduler.schedule(this::reap, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void reap() {
+    int deleted;
+    try {
+      deleted = deleteExpiredBatch();
+    } catch (RuntimeException e) {
+      // back off rather than retry a failing database after a short pause
+      errors.increment();
+      logger.error("Unable to delete expired tokens", e);
+      reaperInterval = min(reaperInterval.multipliedBy(2), maxInterval);
+      batchesInRun = 0;
+      scheduleReaper(reaperInterval);
+      return;
+    }
+
+    batchesInRun++;
+
+    // a full batch means there is a backlog, continue after a short pause
+    if (deleted == batchSize) {
+      pauseMillis.add(pause.toMillis());
+      scheduleReaper(pause);
+      return;
+    }
+
+    if (batchesInRun > 1) {
+      reaperInterval = max(reaperInterval.dividedBy(2), minInterval);
+    } else if (deleted == 0) {
+      reaperInterval = min(reaperInterval.multipliedBy(2), maxInterval);
+    }
+
+    batchesInRun = 0;
+    scheduleReaper(reaperInterval);
+  }
+
+  private int deleteExpiredBatch() {
+    var expired = database.findAll(String.class,
+        "select token_id " +
+            "from tokens " +
+            "where expiry < current_timestamp " +
+            "fetch first ? rows only",
+        batchSize);
+    rowsSelected.add(expired.size());
+
+    if (expired.isEmpty()) {
+      return 0;
+    }
+
+    var deleted = database.updateBatch("delete from tokens " +
+        "where token_id = ?",
+        expired.stream().map(List::of).collect(Collectors.toList()));
+    var count = 0;
+    for (var rows : deleted) {
+      count += rows;
+    }
+
+    rowsDeleted.add(count);
+
+    return expired.size();
+  }
+
+  private static Duration min(Duration a, Duration b) {
+    return a.compareTo(b) < 0 ? a : b;
+  }
+
+  private static Duration max(Duration a, Duration b) {
+    return a.compareTo(b) > 0 ? a : b;
+  }
 }
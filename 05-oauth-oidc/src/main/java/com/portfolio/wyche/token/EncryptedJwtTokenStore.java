@@ -1,5 +1,6 @@
 package com.portfolio.wyche.token;
 
+import java.security.SecureRandom;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.Optional;
@@ -21,17 +22,31 @@ import spark.Request;
 public class EncryptedJwtTokenStore implements SecureTokenStore {
 
   private final SecretKey encKey;
+  // revocation is either checked against an allow-list of the tokens in the
+  // database, or against an in-memory deny-list of revoked tokens
   private final DatabaseTokenStore tokenAllowList;
+  private final TokenDenyList tokenDenyList;
+  private final SecureRandom secureRandom;
 
   public EncryptedJwtTokenStore(SecretKey encKey, DatabaseTokenStore tokenAllowList) {
     this.encKey = encKey;
     this.tokenAllowList = tokenAllowList;
+    this.tokenDenyList = null;
+    this.secureRandom = null;
+  }
+
+  // tokens are trusted up to their expiry unless revoked, which keeps the
+  // database out of token validation
+  public EncryptedJwtTokenStore(SecretKey encKey, TokenDenyList tokenDenyList) {
+    this.encKey = encKey;
+    this.tokenAllowList = null;
+    this.tokenDenyList = tokenDenyList;
+    this.secureRandom = new SecureRandom();
   }
 
   @Override
   public String create(Request request, Token token) {
-    var allowListToken = new Token(token.expiry, token.username);
-    var jwtId = tokenAllowList.create(request, allowListToken);
+    var jwtId = jwtId(request, token);
     var claimsBuilder = new JWTClaimsSet.Builder()
         .jwtID(jwtId)
         .subject(token.username)
@@ -60,7 +75,7 @@ public class EncryptedJwtTokenStore implements SecureTokenStore {
       var claims = jwt.getJWTClaimsSet();
       var jwtId = claims.getJWTID();
 
-      if (tokenAllowList.read(request, jwtId).isEmpty()) {
+      if (isRevoked(request, jwtId)) {
         return Optional.empty();
       }
 
@@ -96,9 +111,38 @@ public class EncryptedJwtTokenStore implements SecureTokenStore {
       jwt.decrypt(decryptor);
       var claims = jwt.getJWTClaimsSet();
 
-      tokenAllowList.revoke(request, claims.getJWTID());
+      if (tokenDenyList != null) {
+        tokenDenyList.revoke(claims.getJWTID(), claims.getExpirationTime().toInstant());
+      } else {
+        tokenAllowList.revoke(request, claims.getJWTID());
+      }
     } catch (ParseException | JOSEException e) {
       throw new IllegalArgumentException("invalid token", e);
     }
   }
+
+  private String jwtId(Request request, Token token) {
+    if (tokenDenyList != null) {
+      var bytes = new byte[20];
+      secureRandom.nextBytes(bytes);
+
+      return Base64url.encode(bytes);
+    }
+
+    var allowListToken = new Token(token.expiry, token.username);
+
+    return tokenAllowList.create(request, allowListToken);
+  }
+
+  private boolean isRevoked(Request request, String jwtId) {
+    if (jwtId == null) {
+      return true;
+    }
+
+    if (tokenDenyList != null) {
+      return tokenDenyList.isRevoked(jwtId);
+    }
+
+    return tokenAllowList.read(request, jwtId).isEmpty();
+  }
 }
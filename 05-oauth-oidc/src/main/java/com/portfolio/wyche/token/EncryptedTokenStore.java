@@ -25,10 +25,15 @@ public class EncryptedTokenStore implements SecureTokenStore {
 
   @Override
   public Optional<Token> read(Request request, String tokenId) {
-    var box = SecretBox.fromString(tokenId);
-    var originalTokenId = Base64url.encode(box.decrypt(encryptionKey));
+    return read(request, TokenSlice.of(tokenId));
+  }
+
+  @Override
+  public Optional<Token> read(Request request, TokenSlice tokenId) {
+    var box = SecretBox.fromString(tokenId.toString());
+    var originalTokenId = Base64url.encodeToBytes(box.decrypt(encryptionKey));
 
-    return delegate.read(request, originalTokenId);
+    return delegate.read(request, TokenSlice.of(originalTokenId));
   }
 
   @Override
@@ -1,13 +1,10 @@
 package com.portfolio.wyche.token;
 
 import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.util.Optional;
 
-import javax.crypto.Mac;
-
 import spark.Request;
 
 public class HmacTokenStore implements SecureTokenStore {
@@ -37,26 +34,32 @@ public class HmacTokenStore implements SecureTokenStore {
   }
 
   private byte[] hmac(String tokenId) {
-    try {
-      var mac = Mac.getInstance(macKey.getAlgorithm());
-      mac.init(macKey);
+    var mac = CryptoProvider.mac(macKey);
 
-      return mac.doFinal(tokenId.getBytes(StandardCharsets.UTF_8));
-    } catch (GeneralSecurityException e) {
-      throw new RuntimeException(e);
-    }
+    return mac.doFinal(tokenId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private byte[] hmac(TokenSlice tokenId) {
+    var mac = CryptoProvider.mac(macKey);
+    tokenId.update(mac);
+
+    return mac.doFinal();
   }
 
   @Override
   public Optional<Token> read(Request request, String tokenId) {
+    return read(request, TokenSlice.of(tokenId));
+  }
+
+  @Override
+  public Optional<Token> read(Request request, TokenSlice tokenId) {
     var index = tokenId.lastIndexOf('.');
     if (index == -1) {
       return Optional.empty();
     }
 
-    var realTokenId = tokenId.substring(0, index);
-    var tag = tokenId.substring(index+1)
-    var provided = Base64url.decode(tag);
+    var realTokenId = tokenId.slice(0, index);
+    var provided = tokenId.slice(index + 1).decode();
     var computed = hmac(realTokenId);
 
     if (!MessageDigest.isEqual(provided, computed)) {
@@ -0,0 +1,228 @@
+package com.portfolio.wyche.token;
+
+import java.io.IOException;
+import java.net.URI;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.SignedJWT;
+
+import spark.Request;
+
+// Validate JWT access tokens locally against the authorization server public
+// keys, and only fall back to token introspection for opaque tokens or tokens
+// signed with a key that is not (yet) known
+public class JwtAccessTokenStore implements SecureTokenStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(JwtAccessTokenStore.class);
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+  private static final int READ_TIMEOUT_MILLIS = 2_000;
+  private static final int JWK_SET_SIZE_LIMIT = 50 * 1024;
+
+  private final URI jwkSetUri;
+  private final String issuer;
+  private final String audience;
+  private final TokenStore introspectionStore;
+  private final ScheduledExecutorService scheduler;
+  // on-demand refreshes (unknown `kid`) are limited to one every 30 seconds so
+  // that forged tokens cannot be used to hammer the authorization server
+  private final RateLimiter refreshLimiter = RateLimiter.create(1.0d / 30);
+  // verifiers are built once per key and swapped as a whole on refresh
+  private volatile Map<String, KeyVerifier> verifiers = Map.of();
+
+  private final LongAdder localValidations = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+
+  public JwtAccessTokenStore(URI jwkSetUri, String issuer, String audience, TokenStore introspectionStore,
+      ScheduledExecutorService scheduler) {
+    this.jwkSetUri = jwkSetUri;
+    this.issuer = issuer;
+    this.audience = audience;
+    this.introspectionStore = introspectionStore;
+    this.scheduler = scheduler;
+
+    scheduler.scheduleWithFixedDelay(this::refresh, 0, 10, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public String create(Request request, Token token) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Optional<Token> read(Request request, String tokenId) {
+    SignedJWT jwt;
+    try {
+      jwt = SignedJWT.parse(tokenId);
+    } catch (ParseException e) {
+      // not a signed JWT, most likely an opaque token
+      fallbacks.increment();
+      return introspectionStore.read(request, tokenId);
+    }
+
+    // an unknown key triggers a refresh in the background, the request itself
+    // falls back to introspection rather than waiting for the JWK set
+    var kid = jwt.getHeader().getKeyID();
+    var verifier = verifier(kid);
+    if (verifier == null && kid != null && refreshLimiter.tryAcquire()) {
+      scheduler.execute(this::refresh);
+    }
+
+    if (verifier == null) {
+      fallbacks.increment();
+      return introspectionStore.read(request, tokenId);
+    }
+
+    localValidations.increment();
+
+    try {
+      if (!verifier.supportedJWSAlgorithms().contains(jwt.getHeader().getAlgorithm()) || !jwt.verify(verifier)) {
+        return Optional.empty();
+      }
+
+      var claims = jwt.getJWTClaimsSet();
+      if (!issuer.equals(claims.getIssuer())) {
+        return Optional.empty();
+      }
+
+      if (claims.getAudience() == null || !claims.getAudience().contains(audience)) {
+        return Optional.empty();
+      }
+
+      if (claims.getExpirationTime() == null || claims.getSubject() == null) {
+        return Optional.empty();
+      }
+
+      // expired tokens are rejected, as introspection reports them inactive
+      var expiry = claims.getExpirationTime().toInstant();
+      if (!expiry.isAfter(Instant.now())) {
+        return Optional.empty();
+      }
+
+      var token = new Token(expiry, claims.getSubject());
+
+      // `scope` is either a space-separated string or a list of scopes
+      var scope = claims.getClaim("scope");
+      if (scope instanceof Iterable<?> scopes) {
+        token.attributes.put("scope", StreamSupport.stream(scopes.spliterator(), false)
+            .map(String::valueOf)
+            .collect(Collectors.joining(" ")));
+      } else if (scope != null) {
+        token.attributes.put("scope", scope.toString());
+      }
+
+      var clientId = claims.getStringClaim("client_id");
+      if (clientId != null) {
+        token.attributes.put("client_id", clientId);
+      }
+
+      return Optional.of(token);
+    } catch (ParseException | JOSEException e) {
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public void revoke(Request request, String tokenId) {
+    introspectionStore.revoke(request, tokenId);
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("local_validations", localValidations.sum())
+        .put("fallbacks", fallbacks.sum())
+        .put("refreshes", refreshes.sum())
+        .put("keys", verifiers.size());
+  }
+
+  private JWSVerifier verifier(String kid) {
+    if (kid == null) {
+      return null;
+    }
+
+    var keyVerifier = verifiers.get(kid);
+
+    return keyVerifier == null ? null : keyVerifier.verifier;
+  }
+
+  // runs on the scheduler only, an exception must not cancel the periodic
+  // refresh
+  private void refresh() {
+    try {
+      var jwkSet = JWKSet.load(jwkSetUri.toURL(), CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, JWK_SET_SIZE_LIMIT);
+      var current = verifiers;
+      var refreshed = new HashMap<String, KeyVerifier>();
+
+      for (var jwk : jwkSet.getKeys()) {
+        var kid = jwk.getKeyID();
+        if (kid == null || jwk.isPrivate()) {
+          continue;
+        }
+
+        // keep the existing verifier when the key has not changed
+        var existing = current.get(kid);
+        if (existing != null && existing.jwk.equals(jwk)) {
+          refreshed.put(kid, existing);
+          continue;
+        }
+
+        var verifier = verifier(jwk);
+        if (verifier != null) {
+          refreshed.put(kid, new KeyVerifier(jwk, verifier));
+        }
+      }
+
+      verifiers = Map.copyOf(refreshed);
+      refreshes.increment();
+    } catch (IOException | ParseException | JOSEException | RuntimeException e) {
+      // keep validating with the previous keys
+      logger.warn("Unable to refresh JWK set from {}", jwkSetUri, e);
+    }
+  }
+
+  private static JWSVerifier verifier(JWK jwk) throws JOSEException {
+    if (jwk instanceof RSAKey rsaKey) {
+      return new RSASSAVerifier(rsaKey);
+    }
+
+    if (jwk instanceof ECKey ecKey) {
+      return new ECDSAVerifier(ecKey);
+    }
+
+    return null;
+  }
+
+  private static class KeyVerifier {
+    private final JWK jwk;
+    private final JWSVerifier verifier;
+
+    private KeyVerifier(JWK jwk, JWSVerifier verifier) {
+      this.jwk = jwk;
+      this.verifier = verifier;
+    }
+  }
+
+}
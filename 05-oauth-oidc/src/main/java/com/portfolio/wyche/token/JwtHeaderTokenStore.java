@@ -13,10 +13,12 @@ public class JwtHeaderTokenStore implements TokenStore {
 
   private final TokenStore delegate;
   private final JSONObject header;
+  private final byte[] encodedHeader;
 
   public JwtHeaderTokenStore(TokenStore delegate, JSONObject header) {
     this.delegate = delegate;
     this.header = header;
+    this.encodedHeader = Base64url.encode(header.toString().getBytes(UTF_8)).getBytes(UTF_8);
   }
 
   @Override
@@ -29,14 +31,26 @@ public class JwtHeaderTokenStore implements TokenStore {
 
   @Override
   public Optional<Token> read(Request request, String tokenId) {
+    return read(request, TokenSlice.of(tokenId));
+  }
+
+  @Override
+  public Optional<Token> read(Request request, TokenSlice tokenId) {
     var index = tokenId.indexOf('.');
     if (index == -1) {
       return Optional.empty();
     }
 
-    var encodedHeader = tokenId.substring(0, index);
-    var realTokenId = tokenId.substring(index + 1);
-    var decodedHeader = Base64url.decode(encodedHeader);
+    var suppliedEncodedHeader = tokenId.slice(0, index);
+    var realTokenId = tokenId.slice(index + 1);
+
+    // tokens created by this store carry exactly the expected header, only
+    // other headers need to be decoded and compared field by field
+    if (suppliedEncodedHeader.contentEquals(encodedHeader)) {
+      return delegate.read(request, realTokenId);
+    }
+
+    var decodedHeader = suppliedEncodedHeader.decode();
     var suppliedHeader = new JSONObject(new String(decodedHeader, UTF_8));
 
     for (var expected : this.header.keySet()) {
@@ -1,5 +1,6 @@
 package com.portfolio.wyche.token;
 
+import static com.portfolio.wyche.token.CookieTokenStore.sha256;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.FileInputStream;
@@ -7,33 +8,103 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.cert.CertPathValidator;
 import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.PKIXRevocationChecker;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.net.ssl.CertPathTrustManagerParameters;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
 import javax.net.ssl.TrustManagerFactory;
 
+import org.json.JSONObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import spark.Request;
 
 public class OAuth2TokenStore implements SecureTokenStore {
 
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(2);
+  // maximum number of introspection requests sent concurrently to the
+  // authorization server, and how long a request waits for a free slot
+  private static final int MAX_IN_FLIGHT = 64;
+  private static final Duration QUEUE_TIMEOUT = Duration.ofMillis(500);
+  // stop calling the authorization server after 5 consecutive failures and
+  // probe it again after 30 seconds
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
   private final URI introspectionEndpoint;
   private final String authorization;
   private final HttpClient httpClient;
+  private final Duration cacheTtl;
+  private final Duration negativeCacheTtl;
+  private final Duration staleGracePeriod;
+  private final Cache<String, Introspection> cache;
+  private final ConcurrentMap<String, CompletableFuture<Optional<Token>>> inFlight;
+  private final Semaphore permits = new Semaphore(MAX_IN_FLIGHT, true);
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker("introspection", FAILURE_THRESHOLD, OPEN_DURATION);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder refreshFailures = new LongAdder();
+  private final LongAdder refreshesSkipped = new LongAdder();
 
   public OAuth2TokenStore(URI introspectionEndpoint, String clientId, String clientSecret) {
+    this(introspectionEndpoint, clientId, clientSecret,
+        Duration.ofMinutes(5), Duration.ofSeconds(10), Duration.ofMinutes(2), 10_000);
+  }
+
+  // a zero stale grace period disables stale-while-revalidate
+  public OAuth2TokenStore(URI introspectionEndpoint, String clientId, String clientSecret,
+      Duration cacheTtl, Duration negativeCacheTtl, Duration staleGracePeriod, long cacheSize) {
+    this(introspectionEndpoint, clientId, clientSecret, httpClient(),
+        cacheTtl, negativeCacheTtl, staleGracePeriod, cacheSize);
+  }
+
+  // the HTTP client is passed in by tests talking to a stub authorization server
+  OAuth2TokenStore(URI introspectionEndpoint, String clientId, String clientSecret, HttpClient httpClient,
+      Duration cacheTtl, Duration negativeCacheTtl, Duration staleGracePeriod, long cacheSize) {
     this.introspectionEndpoint = introspectionEndpoint;
+    this.httpClient = httpClient;
+    this.cacheTtl = cacheTtl;
+    this.negativeCacheTtl = negativeCacheTtl;
+    this.staleGracePeriod = staleGracePeriod;
+    var retention = cacheTtl.plus(staleGracePeriod);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(retention.compareTo(negativeCacheTtl) > 0 ? retention : negativeCacheTtl)
+        .build();
+    this.inFlight = new ConcurrentHashMap<>();
     var credentials = URLEncoder.encode(clientId, UTF_8) +
         ":" +
         URLEncoder.encode(clientSecret, UTF_8);
     this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8));
+  }
+
+  private static HttpClient httpClient() {
     var sslParams = new SSLParameters();
     sslParams.setProtocols(new String[] { "TLSv1.3", "TLSv1.2" });
     sslParams.setCipherSuites(new String[] {
@@ -61,7 +132,11 @@ public class OAuth2TokenStore implements SecureTokenStore {
       var sslContext = SSLContext.getInstance("TLS");
       sslContext.init(null, tmf.getTrustManagers(), null);
 
-      this.httpClient = HttpClient.newBuilder()
+      // HTTP/2 multiplexes all concurrent introspection requests over a single
+      // connection to the authorization server
+      return HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_2)
+          .connectTimeout(CONNECT_TIMEOUT)
           .sslParameters(sslParams)
           .sslContext(sslContext)
           .build();
@@ -78,11 +153,219 @@ public class OAuth2TokenStore implements SecureTokenStore {
 
   @Override
   public Optional<Token> read(Request request, String tokenId) {
+    // only allow printable ASCII characters, with a reasonable length limit
+    if (!tokenId.matches("[\\x20-\\x7E]{1,1024}")) {
+      return Optional.empty();
+    }
+
+    var key = Base64url.encode(sha256(tokenId));
+    var now = Instant.now();
+    var cached = cache.getIfPresent(key);
+
+    if (cached != null && now.isBefore(cached.validUntil)) {
+      hits.increment();
+      return cached.token;
+    }
+
+    // serve a recently validated token while it is refreshed in the background,
+    // so that a slow or failing authorization server does not fail the request
+    if (cached != null && now.isBefore(cached.staleUntil)) {
+      staleHits.increment();
+      load(key, tokenId, true).exceptionally(e -> {
+        var cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+          refreshesSkipped.increment();
+        } else {
+          refreshFailures.increment();
+        }
+        return null;
+      });
+
+      return cached.token;
+    }
+
+    misses.increment();
+
+    return await(load(key, tokenId, false));
+  }
+
+  // concurrent introspections of the same token share a single remote call
+  private CompletableFuture<Optional<Token>> load(String key, String tokenId, boolean background) {
+    var future = new CompletableFuture<Optional<Token>>();
+    var existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      coalesced.increment();
+      return existing;
+    }
+
+    // another thread may have completed the call between the lookup and the
+    // registration of this one
+    var cached = cache.getIfPresent(key);
+    if (cached != null && Instant.now().isBefore(cached.validUntil)) {
+      inFlight.remove(key, future);
+      future.complete(cached.token);
+      return future;
+    }
+
+    // the result is cached before the call is unregistered, so that a read in
+    // between finds one or the other rather than starting another call
+    introspect(tokenId, background).whenComplete((token, e) -> {
+      if (e == null) {
+        cache.put(key, introspection(token));
+      }
+      inFlight.remove(key, future);
+
+      if (e != null) {
+        future.completeExceptionally(e);
+      } else {
+        future.complete(token);
+      }
+    });
+
+    return future;
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("hits", hits.sum())
+        .put("misses", misses.sum())
+        .put("coalesced", coalesced.sum())
+        .put("stale_hits", staleHits.sum())
+        .put("refresh_failures", refreshFailures.sum())
+        .put("refreshes_skipped", refreshesSkipped.sum())
+        .put("in_flight", MAX_IN_FLIGHT - permits.availablePermits())
+        .put("queued", permits.getQueueLength())
+        .put("size", cache.size())
+        .put("circuit_breaker", circuitBreaker.metrics());
+  }
+
+  // active tokens are cached up to their `exp` claim, inactive ones for a short
+  // time only so that a token which is not yet known is picked up quickly.
+  // Neither fresh nor stale entries outlive the token itself
+  private Introspection introspection(Optional<Token> token) {
+    var now = Instant.now();
+    if (token.isEmpty()) {
+      var validUntil = now.plus(negativeCacheTtl);
+      return new Introspection(token, validUntil, validUntil);
+    }
+
+    var expiry = token.get().expiry;
+    var validUntil = min(expiry, now.plus(cacheTtl));
+    var staleUntil = min(expiry, validUntil.plus(staleGracePeriod));
 
+    return new Introspection(token, validUntil, staleUntil);
+  }
+
+  private static Instant min(Instant a, Instant b) {
+    return a.isBefore(b) ? a : b;
+  }
+
+  // a background refresh never waits for a free slot, the stale token is
+  // served anyway and the refresh is skipped when the server is saturated
+  private CompletableFuture<Optional<Token>> introspect(String tokenId, boolean background) {
+    var form = "token=" +
+        URLEncoder.encode(tokenId, UTF_8) +
+        "&token_type_hint=access_token";
+
+    var httpRequest = HttpRequest.newBuilder()
+        .uri(introspectionEndpoint)
+        .header("Content-Type", "application/x-www-form-urlencoded")
+        .header("Authorization", authorization)
+        .timeout(REQUEST_TIMEOUT)
+        .POST(BodyPublishers.ofString(form))
+        .build();
+
+    // wait a bounded time for a free slot rather than piling up requests on a
+    // slow authorization server
+    try {
+      var acquired = background
+          ? permits.tryAcquire()
+          : permits.tryAcquire(QUEUE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      if (!acquired) {
+        return CompletableFuture.failedFuture(
+            new RejectedExecutionException("too many pending introspection requests"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
+    }
+
+    // fail fast while the authorization server is known to be unavailable
+    var permit = circuitBreaker.tryAcquire();
+    if (permit.isEmpty()) {
+      permits.release();
+      return CompletableFuture.failedFuture(
+          new RejectedExecutionException("authorization server unavailable"));
+    }
+
+    return httpClient.sendAsync(httpRequest, BodyHandlers.ofString())
+        .whenComplete((httpResponse, e) -> permits.release())
+        .handle((httpResponse, e) -> {
+          if (e != null) {
+            throw unavailable(e);
+          }
+
+          return processResponse(httpResponse);
+        })
+        .whenComplete((token, e) -> {
+          if (e == null) {
+            circuitBreaker.onSuccess(permit.get());
+          } else {
+            circuitBreaker.onFailure(permit.get());
+          }
+        });
+  }
+
+  // timeouts and connection failures are reported like a saturated server, as
+  // a temporary condition the client can retry
+  private static RuntimeException unavailable(Throwable e) {
+    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    if (cause instanceof IOException) {
+      return new RejectedExecutionException("authorization server unavailable", cause);
+    }
+
+    return cause instanceof RuntimeException runtime ? runtime : new CompletionException(cause);
+  }
+
+  private Optional<Token> processResponse(HttpResponse<String> httpResponse) {
+    // a server error says nothing about the token, it must not be cached as
+    // inactive
+    if (httpResponse.statusCode() >= 500) {
+      throw new IllegalStateException("introspection failed with status " + httpResponse.statusCode());
+    }
+
+    if (httpResponse.statusCode() == 200) {
+      var json = new JSONObject(httpResponse.body());
+
+      if (json.getBoolean("active")) {
+        return processResponse(json);
+      }
+    }
+
+    return Optional.empty();
   }
 
   private Optional<Token> processResponse(JSONObject response) {
+    var expiry = Instant.ofEpochSecond(response.getLong("exp"));
+    var subject = response.getString("sub");
+    var token = new Token(expiry, subject);
+
+    token.attributes.put("scope", response.getString("scope"));
+    token.attributes.put("client_id", response.optString("client_id"));
+
+    return Optional.of(token);
+  }
+
+  private static Optional<Token> await(CompletableFuture<Optional<Token>> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
 
+      throw new RuntimeException(e.getCause());
+    }
   }
 
   @Override
@@ -90,4 +373,16 @@ public class OAuth2TokenStore implements SecureTokenStore {
     throw new UnsupportedOperationException();
   }
 
+  private static class Introspection {
+    private final Optional<Token> token;
+    private final Instant validUntil;
+    private final Instant staleUntil;
+
+    private Introspection(Optional<Token> token, Instant validUntil, Instant staleUntil) {
+      this.token = token;
+      this.validUntil = validUntil;
+      this.staleUntil = staleUntil;
+    }
+  }
+
 }
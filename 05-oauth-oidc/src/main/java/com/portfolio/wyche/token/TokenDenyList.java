@@ -0,0 +1,117 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dalesbred.Database;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+// In-memory set of revoked token ids (`jti`), so that self-contained tokens can
+// be checked for revocation without a database query.
+// A Bloom filter answers the common case (token not revoked) without touching
+// the exact set, which is only consulted on a possible match
+public class TokenDenyList {
+
+  private static final Logger logger = LoggerFactory.getLogger(TokenDenyList.class);
+
+  private final Database database;
+  private final int expectedRevocations;
+  private final ConcurrentMap<String, Instant> revoked = new ConcurrentHashMap<>();
+  private volatile BloomFilter<CharSequence> filter;
+
+  private final LongAdder falsePositives = new LongAdder();
+
+  // expired revocations are purged every minute on the given scheduler, which
+  // is owned (and shut down) by the caller
+  public TokenDenyList(Database database, int expectedRevocations, ScheduledExecutorService scheduler) {
+    this.database = database;
+    this.expectedRevocations = expectedRevocations;
+
+    revoked.putAll(database.findMap(String.class, Instant.class,
+        "select jwt_id, expiry " +
+            "from revoked_tokens " +
+            "where expiry >= current_timestamp"));
+    rebuildFilter();
+
+    scheduler.scheduleWithFixedDelay(this::purge, 1, 1, TimeUnit.MINUTES);
+  }
+
+  public boolean isRevoked(String jwtId) {
+    if (!filter.mightContain(jwtId)) {
+      return false;
+    }
+
+    if (revoked.containsKey(jwtId)) {
+      return true;
+    }
+
+    falsePositives.increment();
+    return false;
+  }
+
+  public void revoke(String jwtId, Instant expiry) {
+    // a token past its expiry is rejected anyway
+    if (expiry.isBefore(Instant.now())) {
+      return;
+    }
+
+    database.update("merge into revoked_tokens(jwt_id, expiry) " +
+        "key(jwt_id) values(?,?)",
+        jwtId, expiry);
+
+    synchronized (this) {
+      revoked.put(jwtId, expiry);
+      filter.put(jwtId);
+    }
+  }
+
+  // revocations are only needed until the token would have expired anyway, the
+  // filter is rebuilt as Bloom filters do not support removal
+  public void deleteExpiredRevocations() {
+    var now = Instant.now();
+    var removed = revoked.entrySet().removeIf(entry -> entry.getValue().isBefore(now));
+    if (removed) {
+      rebuildFilter();
+    }
+
+    var deleted = database.update("delete from revoked_tokens " +
+        "where expiry < current_timestamp");
+    if (deleted > 0) {
+      logger.info("Deleted {} expired revocations", deleted);
+    }
+  }
+
+  public JSONObject metrics() {
+    return new JSONObject()
+        .put("revoked", revoked.size())
+        .put("false_positives", falsePositives.sum());
+  }
+
+  // an exception must not cancel the periodic purge
+  private void purge() {
+    try {
+      deleteExpiredRevocations();
+    } catch (RuntimeException e) {
+      logger.error("Unable to delete expired revocations", e);
+    }
+  }
+
+  private synchronized void rebuildFilter() {
+    var size = Math.max(expectedRevocations, revoked.size() * 2);
+    var rebuilt = BloomFilter.create(Funnels.stringFunnel(UTF_8), size, 0.01);
+    revoked.keySet().forEach(rebuilt::put);
+
+    filter = rebuilt;
+  }
+}
@@ -0,0 +1,104 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import javax.crypto.Mac;
+
+// Read-only view over a range of the bytes of a token, passed down a chain of
+// token stores so that each layer can verify and strip its part without
+// creating intermediate strings
+public class TokenSlice {
+
+  private final byte[] bytes;
+  private final int offset;
+  private final int length;
+  private String string;
+
+  private TokenSlice(byte[] bytes, int offset, int length, String string) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    this.string = string;
+  }
+
+  public static TokenSlice of(String tokenId) {
+    var bytes = tokenId.getBytes(UTF_8);
+
+    return new TokenSlice(bytes, 0, bytes.length, tokenId);
+  }
+
+  public static TokenSlice of(byte[] bytes) {
+    return new TokenSlice(bytes, 0, bytes.length, null);
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public int indexOf(char c) {
+    for (var i = 0; i < length; i++) {
+      if (bytes[offset + i] == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  public int lastIndexOf(char c) {
+    for (var i = length - 1; i >= 0; i--) {
+      if (bytes[offset + i] == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  public TokenSlice slice(int from, int to) {
+    if (from < 0 || to > length || from > to) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    return new TokenSlice(bytes, offset + from, to - from, null);
+  }
+
+  public TokenSlice slice(int from) {
+    return slice(from, length);
+  }
+
+  public boolean contentEquals(byte[] other) {
+    if (other.length != length) {
+      return false;
+    }
+
+    for (var i = 0; i < length; i++) {
+      if (bytes[offset + i] != other[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public void update(Mac mac) {
+    mac.update(bytes, offset, length);
+  }
+
+  public byte[] decode() {
+    return Base64url.decode(bytes, offset, length);
+  }
+
+  public int decode(byte[] dst) {
+    return Base64url.decode(bytes, offset, length, dst);
+  }
+
+  @Override
+  public String toString() {
+    if (string == null) {
+      string = new String(bytes, offset, length, UTF_8);
+    }
+
+    return string;
+  }
+}
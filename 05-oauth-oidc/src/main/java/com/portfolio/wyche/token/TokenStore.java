@@ -13,6 +13,12 @@ public interface TokenStore {
 
   Optional<Token> read(Request request, String tokenId);
 
+  // stores wrapping another store override this to verify and strip their part
+  // of the token without copying it, the innermost store gets a plain string
+  default Optional<Token> read(Request request, TokenSlice tokenId) {
+    return read(request, tokenId.toString());
+  }
+
   void revoke(Request request, String tokenId);
 
   class Token {
@@ -16,6 +16,8 @@ import spark.Request;
 // Use AES in unauthenticated counter mode
 public class UnauthenticatedEncryptionStore implements ConfidentialTokenStore {
 
+  private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
   private final Key encKey;
   private final TokenStore delegate;
 
@@ -33,19 +35,24 @@ public class UnauthenticatedEncryptionStore implements ConfidentialTokenStore {
 
   @Override
   public Optional<Token> read(Request request, String tokenId) {
+    return read(request, TokenSlice.of(tokenId));
+  }
+
+  @Override
+  public Optional<Token> read(Request request, TokenSlice tokenId) {
     return decrypt(tokenId)
         .flatMap(d -> delegate.read(request, d));
   }
 
   @Override
   public void revoke(Request request, String tokenId) {
-    decrypt(tokenId)
-        .ifPresent(d -> delegate.revoke(request, d));
+    decrypt(TokenSlice.of(tokenId))
+        .ifPresent(d -> delegate.revoke(request, d.toString()));
   }
 
   private String encrypt(byte[] data) {
     try {
-      var cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      var cipher = CryptoProvider.cipher(TRANSFORMATION);
       cipher.init(Cipher.ENCRYPT_MODE, encKey);
       var cipherText = cipher.doFinal(data);
       var iv = cipher.getIV();
@@ -56,21 +63,22 @@ public class UnauthenticatedEncryptionStore implements ConfidentialTokenStore {
     }
   }
 
-  private Optional<String> decrypt(String encrypted) {
+  private Optional<TokenSlice> decrypt(TokenSlice encrypted) {
     var index = encrypted.indexOf('.');
     if (index == -1) {
       return Optional.empty();
     }
 
-    var iv = Base64url.decode(encrypted.substring(0, index));
-    var cipherText = Base64url.decode(encrypted.substring(index + 1));
+    var iv = encrypted.slice(0, index).decode();
+    var buffer = encrypted.slice(index + 1).decode();
 
     try {
-      var cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      // counter mode does not change the length, decrypt in place
+      var cipher = CryptoProvider.cipher(TRANSFORMATION);
       cipher.init(Cipher.DECRYPT_MODE, encKey, new IvParameterSpec(iv));
-      var plainText = cipher.doFinal(cipherText);
+      cipher.doFinal(buffer, 0, buffer.length, buffer);
 
-      return Optional.of(new String(plainText, UTF_8));
+      return Optional.of(TokenSlice.of(buffer));
     } catch (GeneralSecurityException e) {
       return Optional.empty();
     }
@@ -0,0 +1,283 @@
+package com.portfolio.wyche.token;
+
+import static com.portfolio.wyche.token.CookieTokenStore.sha256;
+
+import java.security.SecureRandom;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dalesbred.Database;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.Request;
+
+// Keep active tokens in memory and persist them to the `tokens` table in the
+// background, so that token validation never touches the database. The table
+// is only read at startup to rebuild the in-memory view. Expired rows are left
+// to the batched reaper of `DatabaseTokenStore`, only the in-memory entries
+// are evicted here
+public class WriteBehindTokenStore implements ConfidentialTokenStore, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteBehindTokenStore.class);
+
+  public enum Durability {
+    // creations and revocations are written before returning to the client
+    SYNC,
+    // creations and revocations are queued and written in batches, a crash can
+    // lose up to one flush interval of changes
+    ASYNC
+  }
+
+  private static final int MAX_BATCH_SIZE = 500;
+  private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(1);
+  private static final Duration MAX_QUEUE_WAIT = Duration.ofSeconds(1);
+
+  private final Database database;
+  private final Durability durability;
+  private final SecureRandom secureRandom;
+  private final ConcurrentMap<String, Token> tokens;
+  private final BlockingQueue<Change> changes;
+  private final Duration flushInterval;
+
+  // a batch that failed to be written, retried before any newer change so that
+  // a revocation is never lost nor applied before the creation of its token
+  private final List<Change> retry = new ArrayList<>();
+  private Duration retryDelay;
+  private Instant retryAt = Instant.MIN;
+  private final LongAdder failedWrites = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  // changes are flushed and expired tokens evicted on the given scheduler,
+  // which is owned (and shut down) by the caller
+  public WriteBehindTokenStore(Database database, Durability durability, Duration flushInterval, int queueCapacity,
+      ScheduledExecutorService scheduler) {
+    this.database = database;
+    this.durability = durability;
+    this.secureRandom = new SecureRandom();
+    this.tokens = new ConcurrentHashMap<>(1024);
+    this.changes = new LinkedBlockingQueue<>(queueCapacity);
+    this.flushInterval = flushInterval;
+    this.retryDelay = flushInterval;
+
+    database.findAll(this::readToken,
+        "select token_id, user_id, expiry, attributes " +
+            "from tokens " +
+            "where expiry >= current_timestamp")
+        .forEach(change -> tokens.put(change.key, change.token));
+    logger.info("Loaded {} tokens", tokens.size());
+
+    var interval = flushInterval.toMillis();
+    scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(this::evictExpiredTokens, 1, 1, TimeUnit.MINUTES);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+  }
+
+  private String randomId() {
+    var bytes = new byte[20];
+    secureRandom.nextBytes(bytes);
+
+    return Base64url.encode(bytes);
+  }
+
+  @Override
+  public String create(Request request, Token token) {
+    var tokenId = randomId();
+    var key = hash(tokenId);
+
+    submit(new Change(key, token));
+    tokens.put(key, token);
+
+    return tokenId;
+  }
+
+  @Override
+  public Optional<Token> read(Request request, String tokenId) {
+    return Optional.ofNullable(tokens.get(hash(tokenId)));
+  }
+
+  @Override
+  public void revoke(Request request, String tokenId) {
+    var key = hash(tokenId);
+
+    // the token stays valid if the revocation cannot be written or queued, it
+    // must not come back from the table on the next restart
+    submit(new Change(key, null));
+    tokens.remove(key);
+  }
+
+  public synchronized JSONObject metrics() {
+    var oldest = retry.isEmpty() ? changes.peek() : retry.get(0);
+    var lag = oldest == null ? 0 : Duration.between(oldest.time, Instant.now()).toMillis();
+
+    return new JSONObject()
+        .put("durability", durability)
+        .put("tokens", tokens.size())
+        .put("queue_depth", changes.size())
+        .put("retry_depth", retry.size())
+        .put("failed_writes", failedWrites.sum())
+        .put("rejected", rejected.sum())
+        .put("flush_lag_ms", lag);
+  }
+
+  @Override
+  public synchronized void close() {
+    // write the pending changes even during a retry backoff
+    flush(true);
+
+    var lost = retry.size() + changes.size();
+    if (lost > 0) {
+      logger.error("Lost {} token changes on close", lost);
+    }
+  }
+
+  private void submit(Change change) {
+    if (durability == Durability.SYNC) {
+      write(List.of(change));
+      return;
+    }
+
+    try {
+      // block the caller for a while when the writer cannot keep up, then
+      // reject the request (503) rather than drop the change or wait for as
+      // long as the database is unavailable
+      if (!changes.offer(change, MAX_QUEUE_WAIT.toMillis(), TimeUnit.MILLISECONDS)) {
+        rejected.increment();
+        throw new RejectedExecutionException("too many pending token changes");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while queueing token change", e);
+    }
+  }
+
+  // a failed batch is kept and retried with an exponential backoff, newer
+  // changes wait in the bounded queue (blocking, then rejecting, the callers
+  // once full)
+  private void flush() {
+    flush(false);
+  }
+
+  private synchronized void flush(boolean ignoreBackoff) {
+    if (!retry.isEmpty()) {
+      if (!ignoreBackoff && Instant.now().isBefore(retryAt) || !tryWrite(retry)) {
+        return;
+      }
+
+      retry.clear();
+    }
+
+    var batch = new ArrayList<Change>(MAX_BATCH_SIZE);
+    while (changes.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      if (!tryWrite(batch)) {
+        retry.addAll(batch);
+        return;
+      }
+
+      batch.clear();
+    }
+  }
+
+  private boolean tryWrite(List<Change> batch) {
+    try {
+      write(batch);
+      retryDelay = flushInterval;
+
+      return true;
+    } catch (RuntimeException e) {
+      failedWrites.increment();
+      logger.error("Unable to persist {} token changes, retrying in {}", batch.size(), retryDelay, e);
+      retryAt = Instant.now().plus(retryDelay);
+      retryDelay = retryDelay.multipliedBy(2).compareTo(MAX_RETRY_DELAY) > 0
+          ? MAX_RETRY_DELAY
+          : retryDelay.multipliedBy(2);
+
+      return false;
+    }
+  }
+
+  private void write(List<Change> batch) {
+    // a token created and revoked within the same batch is never written
+    var pending = new LinkedHashMap<String, Change>();
+    var deletes = new ArrayList<List<?>>();
+    for (var change : batch) {
+      if (change.token != null) {
+        pending.put(change.key, change);
+      } else if (pending.remove(change.key) == null) {
+        deletes.add(List.of(change.key));
+      }
+    }
+
+    var inserts = new ArrayList<List<?>>();
+    for (var change : pending.values()) {
+      var attrs = new JSONObject(change.token.attributes).toString();
+      inserts.add(List.of(change.key, change.token.username, change.token.expiry, attrs));
+    }
+
+    // merge rather than insert, so that a retried batch can be written again
+    database.withVoidTransaction(tx -> {
+      if (!inserts.isEmpty()) {
+        database.updateBatch("merge into tokens(token_id, user_id, expiry, attributes) " +
+            "key(token_id) values(?,?,?,?)", inserts);
+      }
+
+      if (!deletes.isEmpty()) {
+        database.updateBatch("delete from tokens " +
+            "where token_id = ?", deletes);
+      }
+    });
+  }
+
+  private void evictExpiredTokens() {
+    var now = Instant.now();
+    tokens.values().removeIf(token -> token.expiry.isBefore(now));
+  }
+
+  private String hash(String tokenId) {
+    var hash = sha256(tokenId);
+
+    return Base64url.encode(hash);
+  }
+
+  private Change readToken(ResultSet resultSet) throws SQLException {
+    var key = resultSet.getString(1);
+    var username = resultSet.getString(2);
+    var expiry = resultSet.getTimestamp(3).toInstant();
+    var json = new JSONObject(resultSet.getString(4));
+    var token = new Token(expiry, username);
+
+    for (var attr : json.keySet()) {
+      token.attributes.put(attr, json.getString(attr));
+    }
+
+    return new Change(key, token);
+  }
+
+  private static class Change {
+    private final String key;
+    // null for a revocation
+    private final Token token;
+    private final Instant time;
+
+    private Change(String key, Token token) {
+      this.key = key;
+      this.token = token;
+      this.time = Instant.now();
+    }
+  }
+}
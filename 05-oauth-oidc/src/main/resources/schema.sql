@@ -31,9 +31,12 @@ create table audit_log(
   path varchar(100) not null, 
   user_id varchar(30) null, 
   status int null, 
-  audit_time timestamp not null
+  audit_time timestamp not null, 
+  duration_us bigint null
 );
 create sequence audit_id_seq;
+create index audit_time_idx on audit_log(audit_time, audit_id);
+create index audit_user_time_idx on audit_log(user_id, audit_time, audit_id);
 
 drop table if exists permissions;
 create table permissions(
@@ -43,10 +46,26 @@ create table permissions(
   primary key (space_id, user_id)
 );
 
+drop table if exists tokens;
+create table tokens(
+  token_id varchar(100) primary key, 
+  user_id varchar(30) not null, 
+  expiry timestamp not null, 
+  attributes varchar(4096) not null
+);
+create index expired_token_idx on tokens(expiry);
+
+drop table if exists revoked_tokens;
+create table revoked_tokens(
+  jwt_id varchar(100) primary key, 
+  expiry timestamp not null
+);
+
 create user api_user PASSWORD 'password';
 grant select, insert on spaces, messages to api_user;
 grant delete on messages to api_user;
-grant select, insert on users to api_user;
+grant select, insert, update on users to api_user;
 grant select, insert on audit_log to api_user;
 grant select, insert on permissions to api_user;
-grant select, insert, delete on tokens to api_user;
+grant select, insert, update, delete on tokens to api_user;
+grant select, insert, update, delete on revoked_tokens to api_user;
@@ -0,0 +1,91 @@
+package com.portfolio.wyche;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.dalesbred.Database;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.portfolio.wyche.token.BinaryTokenStore;
+import com.portfolio.wyche.token.EncryptedJwtTokenStore;
+import com.portfolio.wyche.token.SignedJwtTokenStore;
+import com.portfolio.wyche.token.TokenDenyList;
+import com.portfolio.wyche.token.TokenStore;
+
+// Compare the self-contained token stores on the size of a token with one
+// attribute, and on create and read throughput: `BinaryTokenStore`,
+// `EncryptedJwtTokenStore` (with the in-memory deny-list, so that reads do not
+// query the database) and `SignedJwtTokenStore` with HS256
+public class BinaryTokenStoreBenchmark {
+
+  public static void main(String... args) throws Exception {
+    var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+    var datasource = JdbcConnectionPool.create("jdbc:h2:mem:benchmark", "wyche", "password");
+    var database = Database.forDataSource(datasource);
+    database.update(Files.readString(Paths.get(Main.class.getResource("/schema.sql").toURI())));
+    var scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    var keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    var key = new SecretKeySpec(keyBytes, "AES");
+    var stores = new TokenStore[] {
+        new BinaryTokenStore(new SecretKeySpec(keyBytes, 0, 16, "AES")),
+        new EncryptedJwtTokenStore(key, new TokenDenyList(database, 10_000, scheduler)),
+        new SignedJwtTokenStore(new MACSigner(keyBytes), new MACVerifier(keyBytes), JWSAlgorithm.HS256,
+            "https://localhost:4567")
+    };
+
+    var token = new TokenStore.Token(Instant.now().plus(10, ChronoUnit.MINUTES), "demo");
+    token.attributes.put("scope", "read write");
+
+    // warm up, then measure
+    for (var round = 0; round < 2; round++) {
+      for (var store : stores) {
+        var tokenId = store.create(null, token);
+        if (store.read(null, tokenId).isEmpty()) {
+          throw new IllegalStateException(store.getClass().getSimpleName() + " rejected its own token");
+        }
+
+        var creates = measure(iterations, () -> store.create(null, token).length());
+        var reads = measure(iterations, () -> store.read(null, tokenId).isPresent() ? 1 : 0);
+
+        if (round == 1) {
+          System.out.printf("%-22s %4d chars, create: %8.0f ops/s, read: %8.0f ops/s%n",
+              store.getClass().getSimpleName(), tokenId.length(), creates, reads);
+        }
+      }
+    }
+
+    scheduler.shutdownNow();
+  }
+
+  private interface Operation {
+    int run();
+  }
+
+  private static double measure(int iterations, Operation operation) {
+    var result = 0L;
+    var start = System.nanoTime();
+    for (var i = 0; i < iterations; i++) {
+      result += operation.run();
+    }
+    var elapsed = System.nanoTime() - start;
+
+    // keep the result alive
+    if (result == 42) {
+      System.out.println();
+    }
+
+    return iterations / (elapsed / 1e9);
+  }
+}
@@ -0,0 +1,86 @@
+package com.portfolio.wyche;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.portfolio.wyche.token.CryptoProvider;
+
+// Compare the per operation cost of the crypto primitives of the token stores
+// when they are created for each call, as the stores did before, and when they
+// are reused from `CryptoProvider`: HMAC-SHA256 of a token id, with the same
+// key and alternating between two keys (the Mac is initialised again on each
+// switch), and AES-CTR decryption of a token id
+public class CryptoProviderBenchmark {
+
+  private interface Operation {
+    int run() throws Exception;
+  }
+
+  public static void main(String... args) throws Exception {
+    var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+    var random = new SecureRandom();
+    var keyBytes = new byte[32];
+    random.nextBytes(keyBytes);
+    var macKey = new SecretKeySpec(keyBytes, "HmacSHA256");
+    var otherMacKey = new SecretKeySpec(keyBytes, 0, 16, "HmacSHA256");
+    var aesKey = new SecretKeySpec(keyBytes, 0, 16, "AES");
+
+    var tokenId = "hvxCaKc2WpTwlcjDRm5ky6NQGBsE9yx-d6bHg".getBytes(UTF_8);
+    var iv = new byte[16];
+    random.nextBytes(iv);
+
+    // warm up, then measure
+    for (var round = 0; round < 2; round++) {
+      var macPerCall = measure(iterations, () -> {
+        var mac = Mac.getInstance("HmacSHA256");
+        mac.init(macKey);
+        return mac.doFinal(tokenId).length;
+      });
+      var macReused = measure(iterations, () -> CryptoProvider.mac(macKey).doFinal(tokenId).length);
+      var switches = new int[1];
+      var macSwitching = measure(iterations, () -> CryptoProvider.mac(switches[0]++ % 2 == 0 ? macKey : otherMacKey)
+          .doFinal(tokenId).length);
+
+      var cipherPerCall = measure(iterations, () -> {
+        var cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        return cipher.doFinal(tokenId).length;
+      });
+      var cipherReused = measure(iterations, () -> {
+        var cipher = CryptoProvider.cipher("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        return cipher.doFinal(tokenId).length;
+      });
+
+      if (round == 1) {
+        System.out.printf("HMAC-SHA256     per call: %8.0f ns/op, reused: %8.0f ns/op, switching keys: %8.0f ns/op%n",
+            macPerCall, macReused, macSwitching);
+        System.out.printf("AES-CTR decrypt per call: %8.0f ns/op, reused: %8.0f ns/op%n", cipherPerCall,
+            cipherReused);
+      }
+    }
+  }
+
+  private static double measure(int iterations, Operation operation) throws Exception {
+    var bytes = 0L;
+    var start = System.nanoTime();
+    for (var i = 0; i < iterations; i++) {
+      bytes += operation.run();
+    }
+    var elapsed = System.nanoTime() - start;
+
+    // keep the result alive
+    if (bytes == 42) {
+      System.out.println();
+    }
+
+    return elapsed / (double) iterations;
+  }
+}
@@ -0,0 +1,121 @@
+package com.portfolio.wyche;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import com.portfolio.wyche.filter.DispatchTable;
+
+import spark.Filter;
+import spark.FilterImpl;
+import spark.Request;
+import spark.Response;
+import spark.route.HttpMethod;
+import spark.route.Routes;
+
+// Compare the per request cost of selecting the before filters of the API,
+// with the filters of `Main`: Spark matching every registered filter against
+// the request path, and the compiled `DispatchTable`. Filters are no-ops so
+// that only the dispatch overhead is measured
+public class FilterChainBenchmark {
+
+  private static final int GLOBAL_FILTERS = 6;
+
+  // method (null for any), path
+  private static final List<String[]> SCOPED_FILTERS = List.of(
+      new String[] { null, "/sessions" },
+      new String[] { null, "/spaces" },
+      new String[] { "POST", "/spaces/:spaceId/messages" },
+      new String[] { "GET", "/spaces/:spaceId/messages/*" },
+      new String[] { "GET", "/spaces/:spaceId/messages" },
+      new String[] { "POST", "/spaces/:spaceId/members" },
+      new String[] { "DELETE", "/spaces/:spaceId/messages/*" },
+      new String[] { null, "/users/bulk" },
+      new String[] { null, "/metrics/*" },
+      new String[] { null, "/expired_tokens" });
+
+  private static final List<String[]> ROUTES = List.of(
+      new String[] { "POST", "/sessions" },
+      new String[] { "DELETE", "/sessions" },
+      new String[] { "POST", "/spaces" },
+      new String[] { "POST", "/spaces/:spaceId/messages" },
+      new String[] { "GET", "/spaces/:spaceId/messages/:msgId" },
+      new String[] { "GET", "/spaces/:spaceId/messages" },
+      new String[] { "POST", "/spaces/:spaceId/members" },
+      new String[] { "DELETE", "/spaces/:spaceId/messages/:msgId" },
+      new String[] { "GET", "/logs" },
+      new String[] { "POST", "/users" },
+      new String[] { "POST", "/users/bulk" },
+      new String[] { "GET", "/metrics/tokens" },
+      new String[] { "DELETE", "/expired_tokens" });
+
+  private static final List<String[]> REQUESTS = List.of(
+      new String[] { "GET", "/spaces/1/messages/42" },
+      new String[] { "GET", "/spaces/1/messages" },
+      new String[] { "POST", "/spaces/1/messages" },
+      new String[] { "POST", "/sessions" },
+      new String[] { "GET", "/logs" });
+
+  public static void main(String... args) {
+    var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+    Filter noop = (request, response) -> {
+    };
+
+    var routes = Routes.create();
+    var table = new DispatchTable();
+    for (var i = 0; i < GLOBAL_FILTERS; i++) {
+      routes.add(HttpMethod.before, filter("+/*paths"));
+      table.before(noop);
+    }
+
+    for (var scoped : SCOPED_FILTERS) {
+      routes.add(HttpMethod.before, filter(scoped[1]));
+      table.before(scoped[0], scoped[1], noop);
+    }
+
+    for (var route : ROUTES) {
+      table.route(route[0], route[1]);
+    }
+    table.compile();
+
+    for (var request : REQUESTS) {
+      System.out.printf("%-6s %-24s spark: %2d filters, dispatch table: %2d filters%n", request[0], request[1],
+          routes.findMultiple(HttpMethod.before, request[1], "*/*").size(),
+          table.filters(request[0], request[1]).length);
+    }
+
+    // warm up, then measure
+    for (var round = 0; round < 2; round++) {
+      var spark = measure(iterations, request -> routes.findMultiple(HttpMethod.before, request[1], "*/*").size());
+      var compiled = measure(iterations, request -> table.filters(request[0], request[1]).length);
+
+      if (round == 1) {
+        System.out.printf("spark filter matching: %6.1f ns/request%n", spark);
+        System.out.printf("dispatch table:        %6.1f ns/request%n", compiled);
+      }
+    }
+  }
+
+  private static double measure(int iterations, ToIntFunction<String[]> dispatch) {
+    var filters = 0L;
+    var start = System.nanoTime();
+    for (var i = 0; i < iterations; i++) {
+      filters += dispatch.applyAsInt(REQUESTS.get(i % REQUESTS.size()));
+    }
+    var elapsed = System.nanoTime() - start;
+
+    // keep the result alive
+    if (filters == 42) {
+      System.out.println();
+    }
+
+    return elapsed / (double) iterations;
+  }
+
+  private static FilterImpl filter(String path) {
+    return new FilterImpl(path, "*/*") {
+      @Override
+      public void handle(Request request, Response response) {
+      }
+    };
+  }
+}
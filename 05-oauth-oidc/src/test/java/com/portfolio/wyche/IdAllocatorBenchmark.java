@@ -0,0 +1,81 @@
+package com.portfolio.wyche;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.dalesbred.Database;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import com.portfolio.wyche.id.IdAllocator;
+
+// Report the throughput of the message insert of `SpaceController.postMessage`
+// against an in-memory database, with an id taken from the sequence in the
+// same transaction as the insert, and with an id from an `IdAllocator`
+public class IdAllocatorBenchmark {
+
+  public static void main(String... args) throws Exception {
+    var threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    var duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 10);
+
+    var datasource = JdbcConnectionPool.create("jdbc:h2:mem:benchmark", "wyche", "password");
+    datasource.setMaxConnections(threads + 1);
+    var database = Database.forDataSource(datasource);
+    database.update(Files.readString(Paths.get(Main.class.getResource("/schema.sql").toURI())));
+    database.update("insert into users(user_id, pw_hash) values('bench', 'x')");
+    database.update("insert into spaces(space_id, name, owner) values(1, 'bench', 'bench')");
+
+    var allocator = new IdAllocator(database, "msg_id_seq", 1_000);
+
+    for (var round = 0; round < 2; round++) {
+      var sequence = measure(database, threads, duration, () -> database.withTransaction(tx -> {
+        var msgId = database.findUniqueLong("select next value for msg_id_seq");
+        insert(database, msgId);
+        return msgId;
+      }));
+      var allocated = measure(database, threads, duration, () -> {
+        var msgId = allocator.next();
+        insert(database, msgId);
+        return msgId;
+      });
+
+      // the first round warms up
+      if (round == 1) {
+        System.out.printf("sequence per message: %10.1f messages/s%n", sequence);
+        System.out.printf("id allocator:         %10.1f messages/s%n", allocated);
+      }
+    }
+  }
+
+  private static void insert(Database database, long msgId) {
+    database.updateUnique("insert into messages(space_id, msg_id, msg_time, author, msg_text) " +
+        "values(?,?, current_timestamp, ?,?)",
+        1, msgId, "bench", "benchmark message");
+  }
+
+  private static double measure(Database database, int threads, Duration duration, LongSupplier postMessage)
+      throws InterruptedException {
+    database.update("delete from messages");
+
+    var messages = new LongAdder();
+    var deadline = System.nanoTime() + duration.toNanos();
+    var executor = Executors.newFixedThreadPool(threads);
+    for (var i = 0; i < threads; i++) {
+      executor.execute(() -> {
+        while (System.nanoTime() < deadline) {
+          postMessage.getAsLong();
+          messages.increment();
+        }
+      });
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(duration.toSeconds() + 60, TimeUnit.SECONDS);
+
+    return messages.sum() / (double) duration.toSeconds();
+  }
+}
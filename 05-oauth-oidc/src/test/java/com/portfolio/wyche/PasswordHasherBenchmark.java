@@ -0,0 +1,52 @@
+package com.portfolio.wyche;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.portfolio.wyche.password.Argon2idPasswordHasher;
+import com.portfolio.wyche.password.PasswordHasher;
+import com.portfolio.wyche.password.Pbkdf2PasswordHasher;
+import com.portfolio.wyche.password.ScryptPasswordHasher;
+
+// Report the password verification throughput of each hasher, calibrated for
+// the given target verification time, with one thread per core
+public class PasswordHasherBenchmark {
+
+  public static void main(String... args) throws Exception {
+    var target = Duration.ofMillis(args.length > 0 ? Long.parseLong(args[0]) : 100);
+    var duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 10);
+    var cores = Runtime.getRuntime().availableProcessors();
+
+    List<PasswordHasher> hashers = List.of(
+        new ScryptPasswordHasher(32768, 8, 1),
+        new ScryptPasswordHasher(ScryptPasswordHasher.calibrate(0, target, 0), 8, 1),
+        new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.calibrate(0, target, 0)),
+        new Argon2idPasswordHasher(19 * 1024, Argon2idPasswordHasher.calibrate(0, target, 0), 1));
+
+    for (var hasher : hashers) {
+      var hash = hasher.hash("benchmark-password");
+      var verifications = new LongAdder();
+      var deadline = System.nanoTime() + duration.toNanos();
+      var executor = Executors.newFixedThreadPool(cores);
+
+      for (var i = 0; i < cores; i++) {
+        executor.execute(() -> {
+          while (System.nanoTime() < deadline) {
+            hasher.verify("benchmark-password", hash);
+            verifications.increment();
+          }
+        });
+      }
+
+      executor.shutdown();
+      executor.awaitTermination(duration.toSeconds() + 60, TimeUnit.SECONDS);
+
+      var perSecond = verifications.sum() / (double) duration.toSeconds();
+      System.out.printf("%-40s %8.1f verifications/s %8.1f verifications/s/core%n",
+          hasher, perSecond, perSecond / cores);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.portfolio.wyche;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dalesbred.Database;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+// A fresh in-memory database with the schema of the API, as created by `Main`:
+// `owner` holds the schema, `api` connects as the restricted API user
+public class TestDatabase {
+
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  public final Database owner;
+  public final Database api;
+
+  private TestDatabase(Database owner, Database api) {
+    this.owner = owner;
+    this.api = api;
+  }
+
+  public static TestDatabase create() {
+    var url = "jdbc:h2:mem:test" + counter.incrementAndGet();
+
+    try {
+      var owner = Database.forDataSource(JdbcConnectionPool.create(url, "wyche", "password"));
+      owner.update(Files.readString(Paths.get(Main.class.getResource("/schema.sql").toURI())));
+      var api = Database.forDataSource(JdbcConnectionPool.create(url, "api_user", "password"));
+
+      return new TestDatabase(owner, api);
+    } catch (Exception e) {
+      throw new IllegalStateException("unable to create the test database", e);
+    }
+  }
+}
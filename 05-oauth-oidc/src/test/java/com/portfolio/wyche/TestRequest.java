@@ -0,0 +1,92 @@
+package com.portfolio.wyche;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import spark.Request;
+
+// A Spark request without a servlet request behind it, for calling controllers
+// and filters directly
+public class TestRequest extends Request {
+
+  private final String method;
+  private final String uri;
+  private final String body;
+  private final Map<String, String> headers = new HashMap<>();
+  private final Map<String, String> queryParams = new HashMap<>();
+  private final Map<String, Object> attributes = new HashMap<>();
+  private String ip = "127.0.0.1";
+
+  public TestRequest(String method, String uri, String body) {
+    this.method = method;
+    this.uri = uri;
+    this.body = body;
+  }
+
+  public TestRequest header(String name, String value) {
+    headers.put(name.toLowerCase(), value);
+    return this;
+  }
+
+  public TestRequest queryParam(String name, String value) {
+    queryParams.put(name, value);
+    return this;
+  }
+
+  public TestRequest ip(String ip) {
+    this.ip = ip;
+    return this;
+  }
+
+  @Override
+  public String requestMethod() {
+    return method;
+  }
+
+  @Override
+  public String uri() {
+    return uri;
+  }
+
+  @Override
+  public String pathInfo() {
+    return uri;
+  }
+
+  @Override
+  public String body() {
+    return body;
+  }
+
+  @Override
+  public String headers(String header) {
+    return headers.get(header.toLowerCase());
+  }
+
+  @Override
+  public String queryParams(String queryParam) {
+    return queryParams.get(queryParam);
+  }
+
+  @Override
+  public String ip() {
+    return ip;
+  }
+
+  @Override
+  public void attribute(String attribute, Object value) {
+    attributes.put(attribute, value);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T attribute(String attribute) {
+    return (T) attributes.get(attribute);
+  }
+
+  @Override
+  public Set<String> attributes() {
+    return attributes.keySet();
+  }
+}
@@ -0,0 +1,95 @@
+package com.portfolio.wyche;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Response;
+
+// A Spark response without a servlet response behind it, recording the status
+// and headers set by controllers and filters. The raw response only supports
+// streaming the body, which is recorded as the output
+public class TestResponse extends Response {
+
+  private int status = 200;
+  private String body;
+  private final Map<String, String> headers = new HashMap<>();
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  @Override
+  public void status(int statusCode) {
+    this.status = statusCode;
+  }
+
+  @Override
+  public int status() {
+    return status;
+  }
+
+  @Override
+  public void header(String header, String value) {
+    headers.put(header, value);
+  }
+
+  public String header(String header) {
+    return headers.get(header);
+  }
+
+  @Override
+  public void type(String contentType) {
+    headers.put("Content-Type", contentType);
+  }
+
+  @Override
+  public String type() {
+    return headers.get("Content-Type");
+  }
+
+  @Override
+  public void body(String body) {
+    this.body = body;
+  }
+
+  @Override
+  public String body() {
+    return body;
+  }
+
+  public String output() {
+    return output.toString(UTF_8);
+  }
+
+  @Override
+  public HttpServletResponse raw() {
+    var stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        output.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> switch (method.getName()) {
+          case "getOutputStream" -> stream;
+          case "flushBuffer" -> null;
+          default -> throw new UnsupportedOperationException(method.getName());
+        });
+  }
+}
@@ -0,0 +1,154 @@
+package com.portfolio.wyche;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.JSONObject;
+
+import com.portfolio.wyche.token.Base64url;
+import com.portfolio.wyche.token.CryptoProvider;
+import com.portfolio.wyche.token.HmacTokenStore;
+import com.portfolio.wyche.token.JwtHeaderTokenStore;
+import com.portfolio.wyche.token.TokenStore;
+import com.portfolio.wyche.token.UnauthenticatedEncryptionStore;
+
+import spark.Request;
+
+// Report the bytes allocated and the time per validated token by the wrapped
+// token store chain (JWT header, HMAC, AES-CTR encryption), when each layer
+// builds intermediate strings as the stores did before `TokenSlice`, and when
+// the layers pass slices down the chain. The innermost store is an in-memory
+// lookup so that only the parsing path is measured
+public class TokenSliceBenchmark {
+
+  public static void main(String... args) throws Exception {
+    var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+    var keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    var macKey = new SecretKeySpec(keyBytes, "HmacSHA256");
+    var encKey = new SecretKeySpec(keyBytes, 0, 16, "AES");
+    var header = new JSONObject().put("typ", "JWT").put("alg", "HS256");
+
+    var inner = new InMemoryTokenStore();
+    var store = new JwtHeaderTokenStore(
+        new HmacTokenStore(new UnauthenticatedEncryptionStore(encKey, inner), macKey), header);
+    var tokenId = store.create(null, new TokenStore.Token(Instant.now().plusSeconds(600), "demo"));
+
+    Predicate<String> strings = token -> readWithStrings(token, header, macKey, encKey, inner).isPresent();
+    Predicate<String> slices = token -> store.read(null, token).isPresent();
+
+    // warm up, then measure
+    for (var round = 0; round < 2; round++) {
+      var before = measure(iterations, tokenId, strings);
+      var after = measure(iterations, tokenId, slices);
+
+      if (round == 1) {
+        System.out.printf("token of %d characters%n", tokenId.length());
+        System.out.printf("intermediate strings: %6.0f bytes/token, %6.0f ns/token%n", before[0], before[1]);
+        System.out.printf("token slices:         %6.0f bytes/token, %6.0f ns/token%n", after[0], after[1]);
+      }
+    }
+  }
+
+  // bytes allocated and nanoseconds per read
+  private static double[] measure(int iterations, String tokenId, Predicate<String> read) {
+    var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    var valid = 0;
+    var allocated = threads.getCurrentThreadAllocatedBytes();
+    var start = System.nanoTime();
+    for (var i = 0; i < iterations; i++) {
+      if (read.test(tokenId)) {
+        valid++;
+      }
+    }
+    var elapsed = System.nanoTime() - start;
+    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+    if (valid != iterations) {
+      throw new IllegalStateException("token rejected");
+    }
+
+    return new double[] { allocated / (double) iterations, elapsed / (double) iterations };
+  }
+
+  // the read path of the three stores before slices, with a substring, a fresh
+  // decoded array and a new string per layer (crypto instances are reused, as
+  // in both cases)
+  private static Optional<TokenStore.Token> readWithStrings(String tokenId, JSONObject header,
+      SecretKeySpec macKey, SecretKeySpec encKey, TokenStore inner) {
+    var index = tokenId.indexOf('.');
+    if (index == -1) {
+      return Optional.empty();
+    }
+
+    var suppliedHeader = new JSONObject(new String(Base64url.decode(tokenId.substring(0, index)), UTF_8));
+    for (var expected : header.keySet()) {
+      if (!Objects.equals(header.get(expected), suppliedHeader.get(expected))) {
+        return Optional.empty();
+      }
+    }
+    var hmacTokenId = tokenId.substring(index + 1);
+
+    index = hmacTokenId.lastIndexOf('.');
+    if (index == -1) {
+      return Optional.empty();
+    }
+
+    var encrypted = hmacTokenId.substring(0, index);
+    var provided = Base64url.decode(hmacTokenId.substring(index + 1));
+    var computed = CryptoProvider.mac(macKey).doFinal(encrypted.getBytes(UTF_8));
+    if (!MessageDigest.isEqual(provided, computed)) {
+      return Optional.empty();
+    }
+
+    index = encrypted.indexOf('.');
+    if (index == -1) {
+      return Optional.empty();
+    }
+
+    try {
+      var iv = Base64url.decode(encrypted.substring(0, index));
+      var cipherText = Base64url.decode(encrypted.substring(index + 1));
+      var cipher = CryptoProvider.cipher("AES/CTR/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, encKey, new IvParameterSpec(iv));
+
+      return inner.read(null, new String(cipher.doFinal(cipherText), UTF_8));
+    } catch (Exception e) {
+      return Optional.empty();
+    }
+  }
+
+  private static class InMemoryTokenStore implements TokenStore {
+    private String tokenId;
+    private Optional<Token> token;
+
+    @Override
+    public String create(Request request, Token token) {
+      this.tokenId = "hvxCaKc2WpTwlcjDRm5ky6NQGBsE9yx-d6bHg";
+      this.token = Optional.of(token);
+
+      return tokenId;
+    }
+
+    @Override
+    public Optional<Token> read(Request request, String tokenId) {
+      return this.tokenId.equals(tokenId) ? token : Optional.empty();
+    }
+
+    @Override
+    public void revoke(Request request, String tokenId) {
+    }
+  }
+}
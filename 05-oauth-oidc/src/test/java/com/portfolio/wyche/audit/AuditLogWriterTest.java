@@ -0,0 +1,195 @@
+package com.portfolio.wyche.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AuditLogWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path spillFile;
+  private RecordingStore store;
+
+  @Before
+  public void setUp() {
+    spillFile = folder.getRoot().toPath().resolve("audit-spill.jsonl");
+    store = new RecordingStore();
+  }
+
+  @Test
+  public void eventsAreWrittenInBatches() {
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    for (var i = 1; i <= 3; i++) {
+      append(writer, i, Instant.now());
+    }
+    writer.close();
+
+    assertEquals(List.of(1L, 2L, 3L), store.ids());
+    assertEquals(3, writer.metrics().getLong("written"));
+    assertFalse(Files.exists(spillFile));
+  }
+
+  @Test
+  public void failedBatchIsSpilledAndReplayedOnRestart() throws Exception {
+    // the batch, then each of its rows
+    store.failures.set(4);
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    for (var i = 1; i <= 3; i++) {
+      append(writer, i, Instant.now());
+    }
+    writer.close();
+
+    var metrics = writer.metrics();
+    assertEquals(3, metrics.getLong("failed"));
+    assertEquals(3, metrics.getLong("spilled"));
+    assertEquals(0, metrics.getLong("dropped"));
+    assertEquals(3, Files.readAllLines(spillFile).size());
+    assertTrue(store.ids().isEmpty());
+
+    writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1)).close();
+    assertEquals(List.of(1L, 2L, 3L), store.ids());
+    assertFalse(Files.exists(spillFile));
+  }
+
+  @Test
+  public void failedBatchIsReplayedOnceTheStoreRecovers() throws Exception {
+    store.failures.set(2);
+    var writer = writer(AuditLogWriter.OverflowPolicy.DROP, Duration.ofMillis(10));
+    append(writer, 1, Instant.now());
+
+    var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (store.ids().isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    writer.close();
+
+    assertEquals(List.of(1L), store.ids());
+    assertEquals(1, writer.metrics().getLong("failed"));
+    assertEquals(1, writer.metrics().getLong("written"));
+  }
+
+  @Test
+  public void interruptedReplayResumesAfterTheWrittenBatches() throws Exception {
+    var lines = new ArrayList<String>();
+    for (var i = 1; i <= 2_500; i++) {
+      lines.add(new AuditRecord(i, "GET", "/spaces", "alice", 200, Instant.now(), 1_000).toJson().toString());
+    }
+    Files.write(spillFile, lines);
+
+    // the first batch is written, then the store fails
+    store.acceptedWrites.set(1);
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    assertEquals(1_000, store.ids().size());
+
+    store.acceptedWrites.set(Integer.MAX_VALUE);
+    writer.close();
+
+    assertEquals(LongStream.rangeClosed(1, 2_500).boxed().toList(), store.ids());
+    try (var files = Files.list(folder.getRoot().toPath())) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void rowsRejectedByTheStoreAreSetAside() throws Exception {
+    store.rejectedPath = "/rejected";
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    append(writer, 1, Instant.now());
+    writer.append(2, "GET", "/rejected", "alice", 200, Instant.now(), 1_000);
+    append(writer, 3, Instant.now());
+    writer.close();
+
+    // the other rows of the batch are written, nothing is retried
+    assertEquals(List.of(1L, 3L), store.ids());
+    var metrics = writer.metrics();
+    assertEquals(1, metrics.getLong("dead_lettered"));
+    assertEquals(0, metrics.getLong("failed"));
+    assertFalse(Files.exists(spillFile));
+
+    var deadLetters = Files.readAllLines(spillFile.resolveSibling("audit-spill.jsonl.dead"));
+    assertEquals(1, deadLetters.size());
+    assertEquals(2, AuditRecord.fromJson(new JSONObject(deadLetters.get(0))).auditId);
+  }
+
+  @Test
+  public void batchIsNotWrittenRowByRowWhileTheStoreFails() {
+    store.failures.set(Integer.MAX_VALUE);
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    for (var i = 1; i <= 50; i++) {
+      append(writer, i, Instant.now());
+    }
+    writer.close();
+
+    // the batch and its first 10 rows
+    assertEquals(11, store.attempts.get());
+    assertEquals(50, writer.metrics().getLong("spilled"));
+    assertEquals(0, writer.metrics().getLong("dead_lettered"));
+  }
+
+  @Test
+  public void lagIsMeasuredFromTheEnqueueTime() {
+    var writer = writer(AuditLogWriter.OverflowPolicy.BLOCK, Duration.ofHours(1));
+    // a request which took an hour to complete
+    append(writer, 1, Instant.now().minus(Duration.ofHours(1)));
+
+    var metrics = writer.metrics();
+    assertEquals(1, metrics.getInt("queue_depth"));
+    assertTrue(metrics.getLong("flush_lag_ms") < Duration.ofMinutes(1).toMillis());
+    writer.close();
+  }
+
+  private AuditLogWriter writer(AuditLogWriter.OverflowPolicy policy, Duration flushInterval) {
+    return new AuditLogWriter(store, null, policy, 100, flushInterval, spillFile);
+  }
+
+  private static void append(AuditLogWriter writer, long auditId, Instant start) {
+    writer.append(auditId, "GET", "/spaces", "alice", 200, start, 1_000);
+  }
+
+  private static class RecordingStore implements AuditStore {
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicInteger attempts = new AtomicInteger();
+    final AtomicInteger acceptedWrites = new AtomicInteger(Integer.MAX_VALUE);
+    final List<AuditRecord> records = new ArrayList<>();
+    volatile String rejectedPath;
+
+    @Override
+    public synchronized void write(List<AuditRecord> batch) {
+      attempts.incrementAndGet();
+      if (failures.getAndDecrement() > 0 || acceptedWrites.getAndDecrement() <= 0) {
+        throw new IllegalStateException("store unavailable");
+      }
+      if (batch.stream().anyMatch(record -> record.path.equals(rejectedPath))) {
+        throw new IllegalArgumentException("value too long");
+      }
+      records.addAll(batch);
+    }
+
+    @Override
+    public void read(AuditQuery query, Consumer<AuditRecord> consumer) {
+      throw new UnsupportedOperationException();
+    }
+
+    synchronized List<Long> ids() {
+      return records.stream().map(record -> record.auditId).toList();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.portfolio.wyche.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+public class AuditQueryTest {
+
+  private static final Instant FROM = Instant.parse("2024-01-01T00:00:00Z");
+  private static final Instant TO = Instant.parse("2024-01-02T00:00:00Z");
+
+  @Test
+  public void cursorHoldsThePositionOfTheRecord() {
+    var record = record(42, Instant.parse("2024-01-01T10:00:00.123456Z"), "alice", 200, "GET", "/spaces");
+    var cursor = AuditQuery.cursor(record);
+
+    var query = query(cursor, null, 0, null, null);
+    assertEquals(record.time, query.afterTime);
+    assertEquals(42, query.afterId);
+    assertNull(query(null, null, 0, null, null).afterTime);
+  }
+
+  @Test
+  public void invalidCursorsAreRejected() {
+    for (var cursor : new String[] { "", "123", "abc.1", "1.abc", "1.2.3" }) {
+      try {
+        query(cursor, null, 0, null, null);
+        fail(cursor);
+      } catch (IllegalArgumentException e) {
+        assertEquals("invalid cursor", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void recordsAfterTheCursorMatch() {
+    var time = Instant.parse("2024-01-01T10:00:00Z");
+    var query = query(AuditQuery.cursor(record(5, time, null, 200, "GET", "/")), null, 0, null, null);
+
+    assertFalse(query.matches(record(4, time, null, 200, "GET", "/")));
+    assertFalse(query.matches(record(5, time, null, 200, "GET", "/")));
+    assertTrue(query.matches(record(6, time, null, 200, "GET", "/")));
+    // a later time comes after the cursor whatever its id
+    assertTrue(query.matches(record(1, time.plusNanos(1_000), null, 200, "GET", "/")));
+    assertFalse(query.matches(record(9, time.minusNanos(1_000), null, 200, "GET", "/")));
+  }
+
+  @Test
+  public void windowIncludesFromAndExcludesTo() {
+    var query = query(null, null, 0, null, null);
+
+    assertTrue(query.matches(record(1, FROM, null, 200, "GET", "/")));
+    assertFalse(query.matches(record(1, FROM.minusNanos(1_000), null, 200, "GET", "/")));
+    assertFalse(query.matches(record(1, TO, null, 200, "GET", "/")));
+  }
+
+  @Test
+  public void filtersAreApplied() {
+    var time = Instant.parse("2024-01-01T10:00:00Z");
+    var record = record(1, time, "alice", 404, "POST", "/spaces/1/messages");
+
+    assertTrue(query(null, "alice", 4, "POST", "/spaces/1").matches(record));
+    assertFalse(query(null, "bob", 0, null, null).matches(record));
+    assertFalse(query(null, null, 2, null, null).matches(record));
+    assertFalse(query(null, null, 0, "GET", null).matches(record));
+    assertFalse(query(null, null, 0, null, "/users").matches(record));
+    // anonymous requests only match without a user filter
+    assertFalse(query(null, "alice", 0, null, null).matches(record(2, time, null, 200, "GET", "/")));
+  }
+
+  @Test
+  public void limitIsReplaced() {
+    var query = query("1.2", "alice", 2, "GET", "/spaces").withLimit(3);
+
+    assertEquals(3, query.limit);
+    assertEquals("alice", query.userId);
+    assertEquals(2, query.afterId);
+  }
+
+  private static AuditQuery query(String cursor, String userId, int statusClass, String method, String pathPrefix) {
+    return new AuditQuery(FROM, TO, userId, statusClass, method, pathPrefix, cursor, 10);
+  }
+
+  private static AuditRecord record(long auditId, Instant time, String userId, int status, String method,
+      String path) {
+    return new AuditRecord(auditId, method, path, userId, status, time, 1_000);
+  }
+}
@@ -0,0 +1,153 @@
+package com.portfolio.wyche.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+
+public class DatabaseAuditStoreTest {
+
+  private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+  private DatabaseAuditStore store;
+
+  @Before
+  public void setUp() {
+    store = new DatabaseAuditStore(TestDatabase.create().api);
+  }
+
+  @Test
+  public void pagesChainedWithTheCursorReturnEveryRecordOnce() {
+    // more than one multi-row insert, with several records per time
+    var records = new ArrayList<AuditRecord>();
+    for (var i = 0; i < 250; i++) {
+      records.add(record(1_000 - i, START.plusSeconds(i / 3), i % 2 == 0 ? "alice" : "bob", 200, "GET", "/spaces"));
+    }
+    store.write(records);
+
+    var read = new ArrayList<AuditRecord>();
+    String cursor = null;
+    var pages = 0;
+    do {
+      var page = read(query(cursor, null, 0, null, null, 40));
+      read.addAll(page);
+      pages++;
+      cursor = page.size() == 40 ? AuditQuery.cursor(page.get(page.size() - 1)) : null;
+    } while (cursor != null);
+
+    assertEquals(7, pages);
+    assertEquals(250, read.size());
+    for (var i = 1; i < read.size(); i++) {
+      var previous = read.get(i - 1);
+      var record = read.get(i);
+      var order = record.time.compareTo(previous.time);
+      if (order < 0 || (order == 0 && record.auditId <= previous.auditId)) {
+        fail("out of order at " + i);
+      }
+    }
+  }
+
+  @Test
+  public void filtersAreApplied() {
+    store.write(List.of(
+        record(1, START, "alice", 200, "GET", "/spaces/1/messages"),
+        record(2, START.plusSeconds(1), "bob", 404, "GET", "/spaces/1/messages/2"),
+        record(3, START.plusSeconds(2), "alice", 201, "POST", "/spaces"),
+        record(4, START.plusSeconds(3), null, 401, "POST", "/spaces_old"),
+        record(5, START.plusSeconds(4), "alice", 500, "DELETE", "/spaces/1/messages/3")));
+
+    assertEquals(List.of(1L, 3L, 5L), ids(query(null, "alice", 0, null, null, 10)));
+    assertEquals(List.of(2L, 4L), ids(query(null, null, 4, null, null, 10)));
+    assertEquals(List.of(3L, 4L), ids(query(null, null, 0, "POST", null, 10)));
+    assertEquals(List.of(1L, 2L, 5L), ids(query(null, null, 0, null, "/spaces/1/", 10)));
+    // `_` in the prefix is not a wildcard
+    assertEquals(List.of(4L), ids(query(null, null, 0, null, "/spaces_", 10)));
+    assertEquals(List.of(), ids(query(null, null, 0, null, "/spaces%", 10)));
+    assertEquals(List.of(2L), ids(query(null, null, 4, "GET", "/spaces", 10)));
+  }
+
+  @Test
+  public void readStopsAtTheLimitAndTheWindow() {
+    store.write(List.of(
+        record(1, START.minusSeconds(1), "alice", 200, "GET", "/spaces"),
+        record(2, START, "alice", 200, "GET", "/spaces"),
+        record(3, START.plusSeconds(1), "alice", 200, "GET", "/spaces"),
+        record(4, START.plusSeconds(3_600), "alice", 200, "GET", "/spaces")));
+
+    assertEquals(List.of(2L, 3L), ids(query(null, null, 0, null, null, 10)));
+    assertEquals(List.of(2L), ids(query(null, null, 0, null, null, 1)));
+  }
+
+  @Test
+  public void recordsAreReadBackAsWritten() {
+    var unknown = new AuditRecord(7, "POST", "/sessions", null, 429, START.plusNanos(123_000),
+        AuditRecord.UNKNOWN_DURATION);
+    store.write(List.of(record(6, START, "alice", 200, "GET", "/spaces"), unknown));
+
+    var read = read(query(null, null, 0, null, null, 10));
+    assertEquals(2, read.size());
+    assertEquals("alice", read.get(0).userId);
+    assertEquals(1_000, read.get(0).durationMicros);
+
+    var record = read.get(1);
+    assertEquals(7, record.auditId);
+    assertEquals("POST", record.method);
+    assertEquals("/sessions", record.path);
+    assertEquals(null, record.userId);
+    assertEquals(429, record.status);
+    assertEquals(unknown.time, record.time);
+    assertEquals(AuditRecord.UNKNOWN_DURATION, record.durationMicros);
+  }
+
+  @Test
+  public void valuesLongerThanTheirColumnAreTruncated() {
+    var path = "/spaces/" + "x".repeat(93);
+    assertEquals(101, path.length());
+    // a user name ending with a surrogate pair across the column width
+    var user = "a".repeat(29) + "\uD83D\uDE00";
+    store.write(List.of(record(1, START, user, 200, "PROPPATCHED", path)));
+
+    var record = read(query(null, null, 0, null, null, 10)).get(0);
+    assertEquals(path.substring(0, 100), record.path);
+    assertEquals("PROPPATCHE", record.method);
+    assertEquals("a".repeat(29), record.userId);
+  }
+
+  @Test
+  public void tableNameIsValidated() {
+    try {
+      new DatabaseAuditStore(TestDatabase.create().api, "audit_log; drop table users");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid table name", e.getMessage());
+    }
+  }
+
+  private static AuditQuery query(String cursor, String userId, int statusClass, String method, String pathPrefix,
+      int limit) {
+    return new AuditQuery(START, START.plusSeconds(3_600), userId, statusClass, method, pathPrefix, cursor, limit);
+  }
+
+  private static AuditRecord record(long auditId, Instant time, String userId, int status, String method,
+      String path) {
+    return new AuditRecord(auditId, method, path, userId, status, time, 1_000);
+  }
+
+  private List<AuditRecord> read(AuditQuery query) {
+    var records = new ArrayList<AuditRecord>();
+    store.read(query, records::add);
+
+    return records;
+  }
+
+  private List<Long> ids(AuditQuery query) {
+    return read(query).stream().map(record -> record.auditId).toList();
+  }
+}
@@ -0,0 +1,170 @@
+package com.portfolio.wyche.audit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dalesbred.Database;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+
+public class PartitionedAuditStoreTest {
+
+  private static final Instant MIDNIGHT = Instant.now().truncatedTo(ChronoUnit.DAYS);
+
+  private TestDatabase database;
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void batchStraddlingMidnightIsWrittenToBothDays() {
+    var store = store(database.owner);
+    store.write(List.of(record(2, MIDNIGHT.minusSeconds(1)), record(3, MIDNIGHT), record(1, MIDNIGHT.minusSeconds(2)),
+        record(4, MIDNIGHT.plusSeconds(1))));
+
+    assertEquals(2, store.metrics().getInt("partitions"));
+    assertEquals(2, rows(MIDNIGHT.minusSeconds(1)));
+    assertEquals(2, rows(MIDNIGHT));
+  }
+
+  @Test
+  public void readsFanOutOverTheDaysInOrder() {
+    var store = store(database.owner);
+    store.write(List.of(record(2, MIDNIGHT.minusSeconds(1)), record(3, MIDNIGHT), record(1, MIDNIGHT.minusSeconds(2)),
+        record(4, MIDNIGHT.plusSeconds(1)), record(5, MIDNIGHT.plus(Duration.ofDays(1)))));
+
+    assertEquals(List.of(1L, 2L, 3L, 4L), ids(store, query(null, 10)));
+    // the page fills across the partitions, and resumes in the next one
+    var first = read(store, query(null, 3));
+    assertEquals(List.of(1L, 2L, 3L), first.stream().map(record -> record.auditId).toList());
+    assertEquals(List.of(4L), ids(store, query(AuditQuery.cursor(first.get(2)), 3)));
+    assertEquals(List.of(3L, 4L), ids(store, query(AuditQuery.cursor(first.get(1)), 10)));
+  }
+
+  @Test
+  public void existingPartitionsAreLoaded() {
+    store(database.owner).write(List.of(record(1, MIDNIGHT.minusSeconds(1)), record(2, MIDNIGHT)));
+
+    var reloaded = store(database.owner);
+    assertEquals(2, reloaded.metrics().getInt("partitions"));
+    assertEquals(List.of(1L, 2L), ids(reloaded, query(null, 10)));
+  }
+
+  @Test
+  public void expiredPartitionsAreDropped() {
+    var expired = MIDNIGHT.minus(Duration.ofDays(31));
+    // written while the day was still retained
+    store(database.owner, 60).write(List.of(record(1, expired), record(2, MIDNIGHT)));
+    var store = store(database.owner);
+
+    store.dropExpiredPartitions();
+
+    assertEquals(1, store.metrics().getInt("partitions"));
+    assertEquals(1, store.metrics().getLong("dropped"));
+    assertEquals(1, partitionTables());
+    var all = new AuditQuery(Instant.EPOCH, MIDNIGHT.plusSeconds(1), null, 0, null, null, null, 10);
+    assertEquals(List.of(2L), ids(store, all));
+  }
+
+  @Test
+  public void partitionIsKeptWhenItCannotBeDropped() {
+    var expired = MIDNIGHT.minus(Duration.ofDays(31));
+    store(database.owner, 60).write(List.of(record(1, expired)));
+    // the API user is not allowed to drop tables
+    var store = store(database.api);
+
+    store.dropExpiredPartitions();
+
+    assertEquals(1, store.metrics().getInt("partitions"));
+    assertEquals(0, store.metrics().getLong("dropped"));
+    var all = new AuditQuery(Instant.EPOCH, MIDNIGHT, null, 0, null, null, null, 10);
+    assertEquals(List.of(1L), ids(store, all));
+  }
+
+  @Test
+  public void recordsPastTheRetentionAreNotWritten() {
+    var store = store(database.owner);
+    // e.g. replayed from a spill file after their partition was dropped
+    store.write(List.of(record(1, MIDNIGHT.minus(Duration.ofDays(31))), record(2, MIDNIGHT),
+        record(3, MIDNIGHT.minus(Duration.ofDays(30)))));
+
+    assertEquals(2, store.metrics().getInt("partitions"));
+    assertEquals(1, store.metrics().getLong("expired_records"));
+    assertEquals(2, partitionTables());
+  }
+
+  @Test
+  public void partitionsHaveTheLayoutOfTheAuditLog() {
+    var store = store(database.owner);
+    var path = "/spaces/" + "x".repeat(93);
+    store.write(List.of(new AuditRecord(1, "GET", path, "alice", 200, MIDNIGHT, 1_000)));
+
+    var columns = "select column_name, data_type, character_maximum_length, is_nullable " +
+        "from information_schema.columns where table_name = ? order by ordinal_position";
+    var partition = "AUDIT_LOG_" + MIDNIGHT.toString().substring(0, 10).replace("-", "");
+    assertEquals(database.owner.findTable(columns, "AUDIT_LOG").getRows().toString(),
+        database.owner.findTable(columns, partition).getRows().toString());
+    assertEquals(2, database.owner.findUniqueInt("select count(*) from information_schema.indexes " +
+        "where table_name = ?", partition));
+    // values are truncated to the width of their column
+    var all = new AuditQuery(MIDNIGHT, MIDNIGHT.plusSeconds(1), null, 0, null, null, null, 10);
+    assertEquals(path.substring(0, 100), read(store, all).get(0).path);
+  }
+
+  private PartitionedAuditStore store(Database schemaOwner) {
+    return store(schemaOwner, 30);
+  }
+
+  private PartitionedAuditStore store(Database schemaOwner, int retentionDays) {
+    return new PartitionedAuditStore(database.api, schemaOwner, retentionDays, scheduler);
+  }
+
+  private static AuditQuery query(String cursor, int limit) {
+    return new AuditQuery(MIDNIGHT.minus(Duration.ofHours(1)), MIDNIGHT.plus(Duration.ofHours(1)), null, 0, null,
+        null, cursor, limit);
+  }
+
+  private int rows(Instant time) {
+    var table = "audit_log_" + time.toString().substring(0, 10).replace("-", "");
+    return database.owner.findUniqueInt("select count(*) from " + table);
+  }
+
+  private int partitionTables() {
+    return database.owner.findUniqueInt("select count(*) from information_schema.tables " +
+        "where table_name like 'AUDIT!_LOG!_%' escape '!'");
+  }
+
+  private static AuditRecord record(long auditId, Instant time) {
+    return new AuditRecord(auditId, "GET", "/spaces", "alice", 200, time, 1_000);
+  }
+
+  private static List<AuditRecord> read(AuditStore store, AuditQuery query) {
+    var records = new ArrayList<AuditRecord>();
+    store.read(query, records::add);
+
+    return records;
+  }
+
+  private static List<Long> ids(AuditStore store, AuditQuery query) {
+    return read(store, query).stream().map(record -> record.auditId).toList();
+  }
+}
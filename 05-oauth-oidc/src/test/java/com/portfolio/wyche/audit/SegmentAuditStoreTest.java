@@ -0,0 +1,160 @@
+package com.portfolio.wyche.audit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentAuditStoreTest {
+
+  private static final int RECORD_SIZE = 176;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private ScheduledExecutorService scheduler;
+  private Instant now;
+
+  @Before
+  public void setUp() {
+    directory = folder.getRoot().toPath().resolve("audit");
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void recordsAreReadInTimeOrderAcrossSegments() throws IOException {
+    var store = store(2, Duration.ofDays(30));
+    store.write(List.of(record(3, now.minusSeconds(1), "alice", 200), record(1, now.minusSeconds(3), "bob", 404),
+        record(2, now.minusSeconds(2), null, 201)));
+
+    assertEquals(List.of(1L, 2L, 3L), ids(store, query(null, 10)));
+    assertEquals(List.of(1L, 2L), ids(store, query(null, 2)));
+    assertEquals(2, store.metrics().getInt("segments"));
+
+    var second = query(AuditQuery.cursor(read(store, query(null, 1)).get(0)), 10);
+    assertEquals(List.of(2L, 3L), ids(store, second));
+
+    var record = read(store, query(null, 10)).get(2);
+    assertEquals("alice", record.userId);
+    assertEquals("/spaces/1/messages", record.path);
+    assertEquals(now.minusSeconds(1), record.time);
+  }
+
+  @Test
+  public void pagesAreCompleteWithRecordsOutOfTimeOrderAcrossBlocks() throws IOException {
+    // several blocks whose times overlap, with two records per time written
+    // in decreasing id order
+    var records = new ArrayList<AuditRecord>();
+    for (var i = 0; i < 3_000; i++) {
+      records.add(record(3_000 - i, now.minusSeconds(3_000).plusSeconds(i * 7_919 % 3_000 / 2), "alice", 200));
+    }
+    var store = store(3_000, Duration.ofDays(30));
+    store.write(records);
+
+    var expected = records.stream()
+        .sorted(Comparator.<AuditRecord, Instant>comparing(record -> record.time)
+            .thenComparingLong(record -> record.auditId))
+        .map(record -> record.auditId)
+        .toList();
+    var paged = new ArrayList<Long>();
+    String cursor = null;
+    do {
+      var page = read(store, query(cursor, 7));
+      page.forEach(record -> paged.add(record.auditId));
+      cursor = page.isEmpty() ? null : AuditQuery.cursor(page.get(page.size() - 1));
+    } while (cursor != null);
+
+    assertEquals(expected, paged);
+  }
+
+  @Test
+  public void segmentsAreReloadedAfterARestart() throws IOException {
+    var store = store(2, Duration.ofDays(30));
+    store.write(List.of(record(1_042, now.minusSeconds(3), "alice", 200),
+        record(17, now.minusSeconds(2), "bob", 200), record(5, now.minusSeconds(1), null, 401)));
+    store.close();
+
+    var reopened = store(2, Duration.ofDays(30));
+    assertEquals(List.of(1_042L, 17L, 5L), ids(reopened, query(null, 10)));
+    // the audit id sequence continues after the stored ids
+    assertEquals(1_042, reopened.maxAuditId());
+    assertEquals(null, read(reopened, query(null, 10)).get(2).userId);
+  }
+
+  @Test
+  public void expiredSegmentsAreDeleted() throws IOException {
+    var store = store(2, Duration.ofDays(30));
+    var expired = now.minus(Duration.ofDays(31));
+    store.write(List.of(record(1, expired, "alice", 200), record(2, expired.plusSeconds(1), "alice", 200),
+        record(3, now.minusSeconds(1), "alice", 200)));
+
+    store.deleteExpiredSegments();
+
+    assertEquals(1, store.metrics().getInt("segments"));
+    assertEquals(1, segmentFiles());
+    var all = new AuditQuery(Instant.EPOCH, now, null, 0, null, null, null, 10);
+    assertEquals(List.of(3L), ids(store, all));
+  }
+
+  @Test
+  public void activeSegmentIsKeptWhenExpired() throws IOException {
+    var store = store(10, Duration.ofDays(30));
+    store.write(List.of(record(1, now.minus(Duration.ofDays(31)), "alice", 200)));
+
+    store.deleteExpiredSegments();
+
+    assertEquals(1, segmentFiles());
+  }
+
+  private SegmentAuditStore store(int recordsPerSegment, Duration retention) throws IOException {
+    return new SegmentAuditStore(directory, (long) recordsPerSegment * RECORD_SIZE, Duration.ofHours(1), retention,
+        scheduler);
+  }
+
+  private AuditQuery query(String cursor, int limit) {
+    return new AuditQuery(now.minus(Duration.ofHours(1)), now, null, 0, null, null, cursor, limit);
+  }
+
+  private long segmentFiles() throws IOException {
+    try (var files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  private static AuditRecord record(long auditId, Instant time, String userId, int status) {
+    return new AuditRecord(auditId, "GET", "/spaces/1/messages", userId, status, time, 1_000);
+  }
+
+  private static List<AuditRecord> read(AuditStore store, AuditQuery query) {
+    var records = new ArrayList<AuditRecord>();
+    store.read(query, records::add);
+
+    return records;
+  }
+
+  private static List<Long> ids(AuditStore store, AuditQuery query) {
+    return read(store, query).stream().map(record -> record.auditId).toList();
+  }
+}
@@ -0,0 +1,224 @@
+package com.portfolio.wyche.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.TestResponse;
+import com.portfolio.wyche.audit.AuditLogWriter;
+import com.portfolio.wyche.audit.AuditQuery;
+import com.portfolio.wyche.audit.AuditRecord;
+import com.portfolio.wyche.audit.AuditStore;
+import com.portfolio.wyche.audit.DatabaseAuditStore;
+import com.portfolio.wyche.id.IdAllocator;
+
+public class AuditControllerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DatabaseAuditStore auditStore;
+  private AuditLogWriter auditLogWriter;
+  private AuditController auditController;
+
+  @Before
+  public void setUp() {
+    var database = TestDatabase.create();
+    auditStore = new DatabaseAuditStore(database.api);
+    auditLogWriter = new AuditLogWriter(auditStore, new IdAllocator(database.owner, "audit_id_seq", 10),
+        AuditLogWriter.OverflowPolicy.BLOCK, 100, Duration.ofHours(1), folder.getRoot().toPath().resolve("spill"));
+    auditController = new AuditController(auditStore, auditLogWriter);
+  }
+
+  @Test
+  public void completedRequestIsRecordedAtItsStart() throws Exception {
+    var request = new TestRequest("GET", "/spaces/1/messages", null);
+    auditController.auditRequestStart(request, new TestResponse());
+    request.attribute("subject", "alice");
+    Thread.sleep(10);
+
+    var response = new TestResponse();
+    response.status(200);
+    auditController.auditRequestEnd(request, response);
+
+    var record = single();
+    assertEquals("GET", record.method);
+    assertEquals("/spaces/1/messages", record.path);
+    assertEquals("alice", record.userId);
+    assertEquals(200, record.status);
+    // stored with microsecond precision
+    Instant start = request.attribute("audit_start");
+    assertTrue(Duration.between(start, record.time).abs().toNanos() < 1_000);
+    assertTrue(record.durationMicros >= 10_000);
+  }
+
+  @Test
+  public void haltedRequestIsRecordedWithoutDuration() {
+    // rate limited before the audit filter ran
+    var response = new TestResponse();
+    response.status(429);
+    var before = Instant.now();
+    auditController.auditRequestEnd(new TestRequest("POST", "/spaces", null), response);
+
+    var record = single();
+    assertEquals("POST", record.method);
+    assertEquals(429, record.status);
+    assertEquals(AuditRecord.UNKNOWN_DURATION, record.durationMicros);
+    assertTrue(Duration.between(before, record.time).toNanos() > -1_000);
+  }
+
+  @Test
+  public void unknownDurationIsWrittenAsNull() {
+    var record = new AuditRecord(1, "GET", "/logs", null, 503, Instant.parse("2024-01-01T00:00:00Z"),
+        AuditRecord.UNKNOWN_DURATION);
+
+    var json = record.toJson();
+    assertTrue(json.isNull("duration_us"));
+    assertEquals(AuditRecord.UNKNOWN_DURATION,
+        AuditRecord.fromJson(new JSONObject(json.toString())).durationMicros);
+  }
+
+  @Test
+  public void auditLogIsStreamedInPages() throws Exception {
+    var start = Instant.parse("2024-01-01T00:00:00Z");
+    var records = new ArrayList<AuditRecord>();
+    for (var i = 1; i <= 5; i++) {
+      records.add(new AuditRecord(i, "GET", "/spaces", i % 2 == 0 ? "bob" : "alice", 200, start.plusSeconds(i),
+          1_000));
+    }
+    auditStore.write(records);
+
+    var first = readAuditLog(start, "alice", null, "2");
+    assertEquals(List.of(1L, 3L), ids(first));
+    var second = readAuditLog(start, "alice", first.getString("next"), "2");
+    assertEquals(List.of(5L), ids(second));
+    // the last page is not full
+    assertFalse(second.has("next"));
+  }
+
+  @Test
+  public void pageSizeIsBounded() throws Exception {
+    for (var limit : new String[] { "0", "1001" }) {
+      try {
+        readAuditLog(Instant.EPOCH, null, null, limit);
+        fail(limit);
+      } catch (IllegalArgumentException e) {
+        assertEquals("limit must be between 1 and 1000", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void invalidTimesAreRejected() throws Exception {
+    var request = new TestRequest("GET", "/logs", null).queryParam("from", "yesterday");
+    try {
+      auditController.readAuditLog(request, new TestResponse());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid from time", e.getMessage());
+    }
+  }
+
+  @Test
+  public void storeFailureBeforeTheFirstRecordIsAnError() throws Exception {
+    var controller = new AuditController(new FailingStore(0), auditLogWriter);
+    var response = new TestResponse();
+    try {
+      controller.readAuditLog(new TestRequest("GET", "/logs", null), response);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("", response.output());
+    }
+  }
+
+  @Test
+  public void storeFailureAfterRecordsEndsTheResponseWithAnError() throws Exception {
+    auditController = new AuditController(new FailingStore(2), auditLogWriter);
+
+    var page = readAuditLog(Instant.EPOCH, null, null, "10");
+    assertEquals(List.of(1L, 2L), ids(page));
+    assertEquals("unable to read the audit log", page.getString("error"));
+    assertFalse(page.has("next"));
+  }
+
+  @Test
+  public void emptyPageIsValid() throws Exception {
+    var page = readAuditLog(Instant.EPOCH, null, null, "10");
+
+    assertTrue(page.getJSONArray("records").isEmpty());
+    assertFalse(page.has("next"));
+  }
+
+  private JSONObject readAuditLog(Instant from, String user, String cursor, String limit) throws Exception {
+    var request = new TestRequest("GET", "/logs", null)
+        .queryParam("from", from.toString())
+        .queryParam("to", from.plusSeconds(3_600).toString())
+        .queryParam("user", user)
+        .queryParam("cursor", cursor)
+        .queryParam("limit", limit);
+    var response = new TestResponse();
+    auditController.readAuditLog(request, response);
+
+    assertEquals(200, response.status());
+    return new JSONObject(response.output());
+  }
+
+  private static List<Long> ids(JSONObject page) {
+    var ids = new ArrayList<Long>();
+    for (var record : page.getJSONArray("records")) {
+      ids.add(((JSONObject) record).getLong("id"));
+    }
+
+    return ids;
+  }
+
+  // hands over the given number of records, then fails
+  private static class FailingStore implements AuditStore {
+    private final int records;
+
+    FailingStore(int records) {
+      this.records = records;
+    }
+
+    @Override
+    public void write(List<AuditRecord> batch) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void read(AuditQuery query, Consumer<AuditRecord> consumer) {
+      for (var i = 1; i <= records; i++) {
+        consumer.accept(new AuditRecord(i, "GET", "/spaces", "alice", 200, query.from, 1_000));
+      }
+      throw new IllegalStateException("connection lost");
+    }
+  }
+
+  private AuditRecord single() {
+    auditLogWriter.close();
+
+    var records = new ArrayList<AuditRecord>();
+    var now = Instant.now();
+    auditStore.read(new AuditQuery(now.minus(Duration.ofMinutes(1)), now.plusSeconds(1), null, 0, null, null, null,
+        10), records::add);
+    assertEquals(1, records.size());
+    assertEquals(1, auditLogWriter.metrics().getLong("written"));
+
+    return records.get(0);
+  }
+}
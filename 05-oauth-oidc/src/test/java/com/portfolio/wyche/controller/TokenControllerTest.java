@@ -0,0 +1,122 @@
+package com.portfolio.wyche.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.TestResponse;
+import com.portfolio.wyche.filter.DispatchTable;
+import com.portfolio.wyche.password.LoginThrottle;
+import com.portfolio.wyche.password.PasswordHashingExecutor;
+import com.portfolio.wyche.password.Pbkdf2PasswordHasher;
+import com.portfolio.wyche.permission.PermissionCache;
+import com.portfolio.wyche.token.CachingTokenStore;
+import com.portfolio.wyche.token.DatabaseTokenStore;
+
+import spark.HaltException;
+
+public class TokenControllerTest {
+
+  private TestDatabase database;
+  private PermissionCache permissionCache;
+  private TokenController tokenController;
+  private UserController userController;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    database.owner.update("insert into users(user_id, pw_hash) values('alice', 'hash'), ('bob', 'hash')");
+    database.owner.update("insert into spaces(space_id, name, owner) values(1, 'one', 'alice')");
+    database.owner.update("insert into permissions(space_id, user_id, perms) values(1, 'bob', 'r')");
+
+    permissionCache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+    // as wired in Main with -Dtoken.permissions
+    var tokenStore = new CachingTokenStore(new DatabaseTokenStore(database.api), Duration.ofMinutes(1), 100);
+    tokenController = new TokenController(tokenStore, permissionCache);
+    userController = new UserController(database.api, new Pbkdf2PasswordHasher(1_000),
+        new PasswordHashingExecutor(1, 1),
+        new LoginThrottle(5, Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofHours(1), 100), null,
+        Duration.ofSeconds(10), permissionCache);
+  }
+
+  @Test
+  public void issuedTokensCarryThePermissionsSnapshot() {
+    var token = login("bob");
+
+    var request = authenticated(token, "GET", "/spaces/1/messages");
+    assertEquals("bob", request.attribute("subject"));
+    assertEquals("1:1", request.attribute(PermissionCache.CLAIM));
+    assertNotNull(request.attribute(PermissionCache.VERSION_CLAIM));
+  }
+
+  @Test
+  public void requestsAreAuthorizedFromTheSnapshot() throws Exception {
+    var token = login("bob");
+    // revoked directly in the database, the snapshot is still trusted
+    database.owner.update("delete from permissions where user_id = 'bob'");
+
+    require("GET", "r", authenticated(token, "GET", "/spaces/1/messages"));
+    assertEquals(1, permissionCache.metrics().getLong("snapshot_hits"));
+
+    try {
+      require("POST", "w", authenticated(token, "POST", "/spaces/1/messages"));
+      fail();
+    } catch (HaltException e) {
+      assertEquals(403, e.statusCode());
+    }
+  }
+
+  @Test
+  public void grantMakesTheSnapshotStale() throws Exception {
+    var token = login("bob");
+    database.owner.update("update permissions set perms = 'rw' where user_id = 'bob'");
+    permissionCache.invalidate(1, "bob");
+
+    require("POST", "w", authenticated(token, "POST", "/spaces/1/messages"));
+    assertEquals(1, permissionCache.metrics().getLong("stale_snapshots"));
+  }
+
+  @Test
+  public void loggedOutTokensAreRejected() {
+    var token = login("bob");
+
+    tokenController.logout(new TestRequest("DELETE", "/sessions", null)
+        .header("Authorization", "Bearer " + token), new TestResponse());
+
+    assertNull(authenticated(token, "GET", "/spaces/1/messages").attribute("subject"));
+  }
+
+  private String login(String username) {
+    var request = new TestRequest("POST", "/sessions", null);
+    request.attribute("subject", username);
+    var response = new TestResponse();
+
+    var token = tokenController.login(request, response).getString("token");
+    assertEquals(201, response.status());
+
+    return token;
+  }
+
+  private TestRequest authenticated(String token, String method, String uri) {
+    var request = new TestRequest(method, uri, null).header("Authorization", "Bearer " + token);
+    tokenController.validateToken(request, new TestResponse());
+
+    return request;
+  }
+
+  private void require(String method, String permission, TestRequest request) throws Exception {
+    new DispatchTable()
+        .before(method, "/spaces/:spaceId/messages", userController.requirePermission(method, permission))
+        .route(method, "/spaces/:spaceId/messages")
+        .compile()
+        .handle(request, new TestResponse());
+  }
+}
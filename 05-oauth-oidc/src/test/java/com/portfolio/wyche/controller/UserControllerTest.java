@@ -0,0 +1,190 @@
+package com.portfolio.wyche.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.TestResponse;
+import com.portfolio.wyche.password.LoginThrottle;
+import com.portfolio.wyche.password.PasswordHasher;
+import com.portfolio.wyche.password.PasswordHashingExecutor;
+import com.portfolio.wyche.password.Pbkdf2PasswordHasher;
+import com.portfolio.wyche.permission.PermissionCache;
+
+public class UserControllerTest {
+
+  private TestDatabase database;
+  private ForkJoinPool provisioningPool;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    provisioningPool = new ForkJoinPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    provisioningPool.shutdownNow();
+  }
+
+  @Test
+  public void bulkRegistrationReportsEachUser() throws Exception {
+    var controller = controller(new Pbkdf2PasswordHasher(1_000), Duration.ofSeconds(10));
+    register(controller, "alice");
+
+    var response = new TestResponse();
+    var result = controller.registerUsers(bulk("alice", "bob", "carol", "bob", "1invalid"), response);
+
+    assertEquals(207, response.status());
+    assertEquals(2, result.getInt("created"));
+    assertStatuses(result, 409, 201, 201, 409, 400);
+    assertEquals(3, users());
+  }
+
+  @Test
+  public void concurrentRegistrationOnlyFailsTheConflictingUser() throws Exception {
+    var controller = controller(new Pbkdf2PasswordHasher(1_000), Duration.ofSeconds(10));
+
+    // bob is inserted by another transaction, which commits only once the
+    // batch is blocked on the row, after its check found no such user
+    var inserted = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var concurrent = CompletableFuture.runAsync(() -> database.owner.withVoidTransaction(tx -> {
+      database.owner.update("insert into users(user_id, pw_hash) values('bob', 'hash')");
+      inserted.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    assertTrue(inserted.await(10, TimeUnit.SECONDS));
+
+    var batch = CompletableFuture.supplyAsync(() -> {
+      try {
+        return controller.registerUsers(bulk("alice", "bob", "carol"), new TestResponse());
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    Thread.sleep(500);
+    release.countDown();
+    concurrent.get(10, TimeUnit.SECONDS);
+
+    var result = batch.get(20, TimeUnit.SECONDS);
+    assertEquals(2, result.getInt("created"));
+    assertStatuses(result, 201, 409, 201);
+    assertEquals(3, users());
+  }
+
+  @Test
+  public void bulkRegistrationTimesOut() throws Exception {
+    var slowHasher = new Pbkdf2PasswordHasher(1_000) {
+      @Override
+      public String hash(String password) {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.hash(password);
+      }
+    };
+    var controller = controller(slowHasher, Duration.ofMillis(50));
+
+    try {
+      controller.registerUsers(bulk("alice", "bob", "carol", "dave", "erin"), new TestResponse());
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertEquals("bulk registration timed out", e.getMessage());
+    }
+
+    Thread.sleep(500);
+    assertEquals(0, users());
+  }
+
+  @Test
+  public void registeredUserAuthenticates() throws Exception {
+    var controller = controller(new Pbkdf2PasswordHasher(1_000), Duration.ofSeconds(10));
+    register(controller, "alice");
+
+    var request = new TestRequest("GET", "/spaces", null)
+        .header("Authorization", basic("alice:password"));
+    controller.authenticate(request, new TestResponse());
+    assertEquals("alice", request.attribute("subject"));
+
+    var wrong = new TestRequest("GET", "/spaces", null)
+        .header("Authorization", basic("alice:wrongpass"));
+    controller.authenticate(wrong, new TestResponse());
+    assertNull(wrong.attribute("subject"));
+  }
+
+  @Test
+  public void outdatedHashIsUpgradedOnLogin() throws Exception {
+    var outdated = new Pbkdf2PasswordHasher(1_000).hash("password");
+    database.owner.update("insert into users(user_id, pw_hash) values('alice', ?)", outdated);
+    var controller = controller(new Pbkdf2PasswordHasher(2_000), Duration.ofSeconds(10));
+
+    var request = new TestRequest("GET", "/spaces", null)
+        .header("Authorization", basic("alice:password"));
+    controller.authenticate(request, new TestResponse());
+
+    assertEquals("alice", request.attribute("subject"));
+    var upgraded = database.owner.findUnique(String.class, "select pw_hash from users where user_id = 'alice'");
+    assertTrue(upgraded.startsWith("$pbkdf2-sha256$i=2000$"));
+  }
+
+  private UserController controller(PasswordHasher passwordHasher, Duration bulkTimeout) {
+    return new UserController(database.api, passwordHasher, new PasswordHashingExecutor(2, 16),
+        new LoginThrottle(5, Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofHours(1), 1_000),
+        provisioningPool, bulkTimeout, new PermissionCache(database.api, 100, 1_000, Duration.ofMinutes(5)));
+  }
+
+  private static void register(UserController controller, String username) throws Exception {
+    controller.registerUser(new TestRequest("POST", "/users",
+        new JSONObject().put("username", username).put("password", "password").toString()), new TestResponse());
+  }
+
+  private static String basic(String credentials) {
+    return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static TestRequest bulk(String... usernames) {
+    var users = new JSONArray();
+    for (var username : usernames) {
+      users.put(new JSONObject().put("username", username).put("password", "password"));
+    }
+
+    return new TestRequest("POST", "/users/bulk", new JSONObject().put("users", users).toString());
+  }
+
+  private static void assertStatuses(JSONObject result, int... statuses) {
+    var users = result.getJSONArray("users");
+    assertEquals(statuses.length, users.length());
+    for (var i = 0; i < statuses.length; i++) {
+      assertEquals(users.getJSONObject(i).toString(), statuses[i], users.getJSONObject(i).getInt("status"));
+    }
+  }
+
+  private int users() {
+    return database.owner.findUniqueInt("select count(*) from users");
+  }
+}
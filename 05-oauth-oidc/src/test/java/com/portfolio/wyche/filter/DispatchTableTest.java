@@ -0,0 +1,217 @@
+package com.portfolio.wyche.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.TestResponse;
+
+import spark.Filter;
+import spark.FilterImpl;
+import spark.Request;
+import spark.Response;
+import spark.RouteImpl;
+import spark.route.HttpMethod;
+import spark.route.Routes;
+
+// The compiled pipelines must run the same filters as the chain of `before`
+// filters they replace, which Spark matches one by one against the raw URI
+public class DispatchTableTest {
+
+  // the filters and routes of `Main`: method (null for any), path (null for any)
+  private static final String[][] FILTERS = {
+      { null, null },
+      { null, null },
+      { null, "/sessions" },
+      { null, "/spaces" },
+      { "POST", "/spaces/:spaceId/messages" },
+      { "GET", "/spaces/:spaceId/messages/*" },
+      { "GET", "/spaces/:spaceId/messages" },
+      { "POST", "/spaces/:spaceId/members" },
+      { "DELETE", "/spaces/:spaceId/messages/*" },
+      { "GET", "/logs" },
+      { null, "/users/bulk" },
+      { null, "/metrics/*" },
+      { null, "/expired_tokens" },
+  };
+
+  private static final String[][] ROUTES = {
+      { "POST", "/sessions" },
+      { "DELETE", "/sessions" },
+      { "POST", "/spaces" },
+      { "POST", "/spaces/:spaceId/messages" },
+      { "GET", "/spaces/:spaceId/messages/:msgId" },
+      { "GET", "/spaces/:spaceId/messages" },
+      { "POST", "/spaces/:spaceId/members" },
+      { "DELETE", "/spaces/:spaceId/messages/:msgId" },
+      { "GET", "/logs" },
+      { "POST", "/users" },
+      { "POST", "/users/bulk" },
+      { "GET", "/metrics/tokens" },
+      { "GET", "/metrics/hashing" },
+      { "DELETE", "/expired_tokens" },
+  };
+
+  private static final String[] PATHS = {
+      "/",
+      "/sessions",
+      "/sessions/",
+      "//sessions",
+      "/Sessions",
+      "/spaces",
+      "/spaces/",
+      "/spaces/1",
+      "/spaces/1/messages",
+      "/spaces/1/messages/",
+      "/spaces//1/messages",
+      "/spaces/%31/messages",
+      "/spaces/1%2Fmessages",
+      "/spaces/1/messages%2F42",
+      "/spaces/1/messages/42",
+      "/spaces/1/messages/42/",
+      "/spaces/1/messages/42/43",
+      "/spaces/1/messages/%34%32",
+      "/spaces/1/members",
+      "/spaces/1/members/",
+      "/logs",
+      "/logs/",
+      "/users",
+      "/users/bulk",
+      "/users/bulk/",
+      "/users/bulk%2F",
+      "/users%2Fbulk",
+      "/metrics",
+      "/metrics/",
+      "/metrics/tokens",
+      "/metrics/unknown",
+      "/metrics/tokens/1",
+      "/metrics%2Ftokens",
+      "/expired_tokens",
+      "/unknown",
+  };
+
+  private static final String[] METHODS = { "GET", "POST", "DELETE", "OPTIONS" };
+
+  private final List<String> dispatched = new ArrayList<>();
+  private final List<String> chained = new ArrayList<>();
+  private DispatchTable table;
+  private Routes spark;
+
+  @Before
+  public void setUp() {
+    table = new DispatchTable();
+    spark = Routes.create();
+
+    for (var i = 0; i < FILTERS.length; i++) {
+      var method = FILTERS[i][0];
+      var path = FILTERS[i][1];
+      var name = "filter " + i;
+
+      table.before(method, path, recording(method, name, dispatched));
+      // scoped filters check the method themselves, as registered with Spark
+      var filter = recording(method, name, chained);
+      spark.add(HttpMethod.before, new FilterImpl(path == null ? "+/*paths" : path, "*/*") {
+        @Override
+        public void handle(Request request, Response response) throws Exception {
+          filter.handle(request, response);
+        }
+      });
+    }
+
+    for (var route : ROUTES) {
+      table.route(route[0], route[1]);
+      spark.add(HttpMethod.get(route[0].toLowerCase()), new RouteImpl(route[1]) {
+        @Override
+        public Object handle(Request request, Response response) {
+          return null;
+        }
+      });
+    }
+
+    table.compile();
+  }
+
+  @Test
+  public void pipelinesRunTheFiltersOfTheBeforeChain() throws Exception {
+    for (var method : METHODS) {
+      for (var path : PATHS) {
+        dispatched.clear();
+        chained.clear();
+
+        table.handle(new TestRequest(method, path, null), new TestResponse());
+        for (var match : spark.findMultiple(HttpMethod.before, path, "*/*")) {
+          ((Filter) match.getTarget()).handle(new TestRequest(method, path, null), new TestResponse());
+        }
+
+        assertEquals(method + " " + path, chained, dispatched);
+      }
+    }
+  }
+
+  @Test
+  public void routesAreMatchedLikeSpark() {
+    for (var method : METHODS) {
+      for (var path : PATHS) {
+        var route = spark.find(HttpMethod.get(method.toLowerCase()), path, "*/*");
+        var filters = table.filters(method, path);
+
+        assertEquals(method + " " + path, route == null, filters == null);
+      }
+    }
+  }
+
+  @Test
+  public void pathParametersAreDecoded() throws Exception {
+    var params = new ArrayList<String>();
+    var table = new DispatchTable()
+        .before("/spaces/:spaceId/messages/:msgId", (request, response) -> {
+          params.add(DispatchTable.param(request, ":spaceId"));
+          params.add(DispatchTable.param(request, ":msgId"));
+        })
+        .route("GET", "/spaces/:spaceId/messages/:msgId")
+        .compile();
+
+    table.handle(new TestRequest("GET", "/spaces/%31/messages/4%202", null), new TestResponse());
+    // unmatched requests go through the same matching
+    table.handle(new TestRequest("POST", "/spaces/%31/messages/4%202", null), new TestResponse());
+
+    assertEquals(List.of("1", "4 2", "1", "4 2"), params);
+  }
+
+  @Test
+  public void unmatchedPathsHaveNoPipeline() {
+    assertNull(table.filters("GET", "/spaces/1/messages/"));
+    assertEquals(3, table.filters("GET", "/spaces/1/messages").length);
+  }
+
+  @Test
+  public void filtersMoreSpecificThanTheRouteAreRejected() {
+    try {
+      new DispatchTable()
+          .before("/spaces/1/messages", (request, response) -> {
+          })
+          .route("GET", "/spaces/:spaceId/messages")
+          .compile();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("filter /spaces/1/messages is more specific than route /spaces/:spaceId/messages", e.getMessage());
+    }
+  }
+
+  // records the filter when it applies to the method of the request, like
+  // `UserController.requirePermission`
+  private static Filter recording(String method, String name, List<String> filters) {
+    return (request, response) -> {
+      if (method == null || method.equalsIgnoreCase(request.requestMethod())) {
+        filters.add(name);
+      }
+    };
+  }
+}
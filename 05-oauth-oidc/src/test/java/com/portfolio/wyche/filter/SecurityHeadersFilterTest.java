@@ -0,0 +1,40 @@
+package com.portfolio.wyche.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.TestResponse;
+
+public class SecurityHeadersFilterTest {
+
+  @Test
+  public void standardHeadersAreSet() {
+    var response = new TestResponse();
+    new SecurityHeadersFilter().handle(new TestRequest("GET", "/logs", null), response);
+
+    assertEquals("application/json;charset=utf-8", response.type());
+    assertEquals("DENY", response.header("X-Frame-Options"));
+    assertEquals("0", response.header("X-XSS-Protection"));
+    assertEquals("no-store", response.header("Cache-Control"));
+    assertEquals("default-src 'none'; frame-ancestors 'none'; sandbox", response.header("Content-Security-Policy"));
+    assertEquals("", response.header("Server"));
+    // disabled for the development server
+    assertNull(response.header("Strict-Transport-Security"));
+  }
+
+  // `/logs` streams its body, the headers are set by a before filter
+  @Test
+  public void headersAreSetBeforeTheStreamedAuditLog() throws Exception {
+    var response = new TestResponse();
+    new DispatchTable()
+        .before("GET", "/logs", new SecurityHeadersFilter())
+        .route("GET", "/logs")
+        .compile()
+        .handle(new TestRequest("GET", "/logs", null), response);
+
+    assertEquals("DENY", response.header("X-Frame-Options"));
+  }
+}
@@ -0,0 +1,91 @@
+package com.portfolio.wyche.id;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+
+public class IdAllocatorTest {
+
+  private TestDatabase database;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+  }
+
+  @Test
+  public void idsAreAllocatedFromBlocks() {
+    var allocator = new IdAllocator(database.owner, "audit_id_seq", 10);
+
+    for (var expected = 10; expected < 25; expected++) {
+      assertEquals(expected, allocator.next());
+    }
+    assertEquals(2, allocator.metrics().getLong("blocks"));
+    // one value of the sequence per block
+    assertEquals(3, database.owner.findUniqueLong("select next value for audit_id_seq"));
+  }
+
+  @Test
+  public void sequenceCanBeRestartedAfterAnId() {
+    var allocator = new IdAllocator(database.api, "audit_id_seq", 10);
+    assertEquals(10, allocator.next());
+
+    allocator.restartAfter(database.owner, 1_042);
+    assertEquals(1_050, allocator.next());
+    assertEquals(1_051, allocator.next());
+  }
+
+  @Test
+  public void allocatorsSharingTheSequenceNeverOverlap() {
+    // another instance, or the same one after a restart
+    var first = new IdAllocator(database.owner, "audit_id_seq", 10);
+    var second = new IdAllocator(database.owner, "audit_id_seq", 10);
+
+    var ids = new HashSet<Long>();
+    for (var i = 0; i < 100; i++) {
+      assertTrue(ids.add(first.next()));
+      assertTrue(ids.add(second.next()));
+    }
+  }
+
+  @Test
+  public void concurrentAllocationsAreUnique() throws Exception {
+    var allocator = new IdAllocator(database.owner, "audit_id_seq", 7);
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+    var threads = new CompletableFuture<?>[8];
+    for (var i = 0; i < threads.length; i++) {
+      threads[i] = CompletableFuture.runAsync(() -> {
+        for (var j = 0; j < 1_000; j++) {
+          ids.add(allocator.next());
+        }
+      });
+    }
+    CompletableFuture.allOf(threads).get(30, TimeUnit.SECONDS);
+
+    assertEquals(8_000, ids.size());
+    // exhausted blocks are only replaced once
+    assertTrue(allocator.metrics().getLong("blocks") <= 8_000 / 7 + threads.length + 1);
+  }
+
+  @Test
+  public void sequenceNameIsValidated() {
+    try {
+      new IdAllocator(database.owner, "audit_id_seq; drop table users", 10);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid sequence name", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.portfolio.wyche.password;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class LoginThrottleTest {
+
+  private final LoginThrottle throttle = new LoginThrottle(3, Duration.ofSeconds(1), Duration.ofSeconds(10),
+      Duration.ofHours(1), 1_000);
+
+  @Test
+  public void attemptsBelowTheThresholdAreNotThrottled() {
+    fail("alice", "10.0.0.1", 2);
+
+    assertEquals(Duration.ZERO, throttle.retryAfter("alice", "10.0.0.1"));
+    assertEquals(0, throttle.metrics().getLong("throttled"));
+  }
+
+  @Test
+  public void delayDoublesWithEveryFailureBeyondTheThreshold() {
+    fail("alice", "10.0.0.1", 3);
+    assertBetween(Duration.ofMillis(500), Duration.ofSeconds(1), throttle.retryAfter("alice", "10.0.0.1"));
+
+    fail("alice", "10.0.0.1", 1);
+    assertBetween(Duration.ofMillis(1500), Duration.ofSeconds(2), throttle.retryAfter("alice", "10.0.0.1"));
+
+    fail("alice", "10.0.0.1", 1);
+    assertBetween(Duration.ofMillis(3500), Duration.ofSeconds(4), throttle.retryAfter("alice", "10.0.0.1"));
+    assertEquals(3, throttle.metrics().getLong("throttled"));
+  }
+
+  @Test
+  public void delayIsCappedAtTheMaximum() {
+    fail("alice", "10.0.0.1", 40);
+
+    assertBetween(Duration.ofSeconds(9), Duration.ofSeconds(10), throttle.retryAfter("alice", "10.0.0.1"));
+  }
+
+  @Test
+  public void usernameIsThrottledFromEveryAddress() {
+    fail("alice", "10.0.0.1", 1);
+    fail("alice", "10.0.0.2", 1);
+    fail("alice", "10.0.0.3", 1);
+
+    assertTrue(throttle.retryAfter("alice", "10.0.0.4").compareTo(Duration.ZERO) > 0);
+    assertEquals(Duration.ZERO, throttle.retryAfter("bob", "10.0.0.4"));
+  }
+
+  @Test
+  public void addressIsThrottledForEveryUsername() {
+    fail("alice", "10.0.0.1", 1);
+    fail("bob", "10.0.0.1", 1);
+    fail("carol", "10.0.0.1", 1);
+
+    assertTrue(throttle.retryAfter("dave", "10.0.0.1").compareTo(Duration.ZERO) > 0);
+    assertEquals(Duration.ZERO, throttle.retryAfter("dave", "10.0.0.2"));
+  }
+
+  @Test
+  public void successClearsTheUsernameOnly() {
+    fail("alice", "10.0.0.1", 3);
+
+    throttle.succeeded("alice");
+
+    assertEquals(Duration.ZERO, throttle.retryAfter("alice", "10.0.0.2"));
+    assertTrue(throttle.retryAfter("alice", "10.0.0.1").compareTo(Duration.ZERO) > 0);
+  }
+
+  private void fail(String username, String address, int times) {
+    for (var i = 0; i < times; i++) {
+      throttle.failed(username, address);
+    }
+  }
+
+  private static void assertBetween(Duration min, Duration max, Duration actual) {
+    assertTrue(actual + " < " + min, actual.compareTo(min) >= 0);
+    assertTrue(actual + " > " + max, actual.compareTo(max) <= 0);
+  }
+}
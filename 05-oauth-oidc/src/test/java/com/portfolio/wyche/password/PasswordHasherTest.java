@@ -0,0 +1,88 @@
+package com.portfolio.wyche.password;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PasswordHasherTest {
+
+  @Test
+  public void calibrationDoublesTheCostWithinTheTarget() {
+    // verifying with a cost of 64 takes 64 ms, the next step is estimated at 128 ms
+    assertEquals(64, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 0, 1, 1024, Duration.ofMillis(100), 0));
+  }
+
+  @Test
+  public void calibrationRaisesTheCostOnlyPastTheTolerance() {
+    var target = Duration.ofMillis(160);
+
+    assertEquals(128, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 64, 1, 1024, target, 0));
+    // 128 ms is within the target, but not with a margin of 50%
+    assertEquals(64, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 64, 1, 1024, target, 0.5));
+  }
+
+  @Test
+  public void calibrationNeverLowersTheCost() {
+    assertEquals(256, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 256, 1, 1024, Duration.ofMillis(10),
+        0));
+  }
+
+  @Test
+  public void calibrationStaysWithinTheBounds() {
+    assertEquals(8, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 0, 8, 1024, Duration.ofMillis(1), 0));
+    assertEquals(4, PasswordHasher.calibrateCost(PasswordHasherTest::millis, 0, 1, 4, Duration.ofSeconds(10), 0));
+  }
+
+  @Test
+  public void calibrationMeasuresTheHasher() {
+    // a few milliseconds at most, far below the target
+    assertEquals(2_000, PasswordHasher.calibrate(Pbkdf2PasswordHasher::new, 1_000, 1_000, 2_000,
+        Duration.ofMinutes(1), 0));
+  }
+
+  @Test
+  public void hashesWithOtherParametersNeedRehash() {
+    assertRehash(new ScryptPasswordHasher(1024, 8, 1), new ScryptPasswordHasher(2048, 8, 1));
+    assertRehash(new Pbkdf2PasswordHasher(1_000), new Pbkdf2PasswordHasher(2_000));
+    assertRehash(new Argon2idPasswordHasher(1024, 1, 1), new Argon2idPasswordHasher(1024, 2, 1));
+  }
+
+  @Test
+  public void delegatingHasherVerifiesAndUpgradesOtherAlgorithms() {
+    var scrypt = new ScryptPasswordHasher(1024, 8, 1);
+    var pbkdf2 = new Pbkdf2PasswordHasher(1_000);
+    var hasher = new DelegatingPasswordHasher(scrypt, List.of(pbkdf2));
+
+    var legacy = pbkdf2.hash("password");
+    assertTrue(hasher.verify("password", legacy));
+    assertFalse(hasher.verify("wrong password", legacy));
+    assertTrue(hasher.needsRehash(legacy));
+
+    var current = hasher.hash("password");
+    assertTrue(scrypt.supports(current));
+    assertFalse(hasher.needsRehash(current));
+    assertFalse(hasher.verify("password", "$unknown$hash"));
+  }
+
+  private static void assertRehash(PasswordHasher current, PasswordHasher outdated) {
+    var hash = current.hash("password");
+    assertTrue(current.verify("password", hash));
+    assertFalse(current.verify("wrong password", hash));
+    assertFalse(current.needsRehash(hash));
+
+    // outdated hashes still verify
+    var outdatedHash = outdated.hash("password");
+    assertTrue(current.verify("password", outdatedHash));
+    assertTrue(current.needsRehash(outdatedHash));
+  }
+
+  // verification takes `cost` milliseconds
+  private static Duration millis(int cost) {
+    return Duration.ofMillis(cost);
+  }
+}
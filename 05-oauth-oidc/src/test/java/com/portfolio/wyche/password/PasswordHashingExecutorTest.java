@@ -0,0 +1,75 @@
+package com.portfolio.wyche.password;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PasswordHashingExecutorTest {
+
+  @Test
+  public void returnsTheResultOfTheTask() {
+    var executor = new PasswordHashingExecutor(1, 1);
+
+    assertEquals("hash", executor.execute(() -> "hash"));
+    assertEquals(1, executor.metrics().getLong("completed"));
+  }
+
+  @Test
+  public void rethrowsRuntimeExceptionsOfTheTask() {
+    var executor = new PasswordHashingExecutor(1, 1);
+
+    try {
+      executor.execute(() -> {
+        throw new IllegalArgumentException("invalid hash");
+      });
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid hash", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsTasksOnceTheQueueIsFull() throws Exception {
+    var executor = new PasswordHashingExecutor(1, 1);
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+
+    // one task occupies the only thread, a second one waits in the queue
+    var running = CompletableFuture.supplyAsync(() -> executor.execute(() -> {
+      started.countDown();
+      return release.await(10, TimeUnit.SECONDS);
+    }));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    var queued = CompletableFuture.supplyAsync(() -> executor.execute(() -> true));
+    awaitQueued(executor, 1);
+
+    try {
+      executor.execute(() -> true);
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, executor.metrics().getLong("rejected"));
+    }
+
+    release.countDown();
+    assertTrue(running.get(10, TimeUnit.SECONDS));
+    assertTrue(queued.get(10, TimeUnit.SECONDS));
+    assertEquals(2, executor.metrics().getLong("completed"));
+  }
+
+  private static void awaitQueued(PasswordHashingExecutor executor, int queued) throws InterruptedException {
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (executor.metrics().getInt("queued") < queued) {
+      if (System.nanoTime() > deadline) {
+        fail("task was not queued");
+      }
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.portfolio.wyche.password;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PasswordParametersTest {
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("password", ".properties");
+    Files.delete(file);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void calibratedCostIsKeptAcrossRestarts() throws IOException {
+    assertEquals(32768, new PasswordParameters(file).cost("scrypt", stored -> {
+      assertEquals(0, stored);
+      return 32768;
+    }));
+
+    // a later start calibrates from the stored cost
+    assertEquals(32768, new PasswordParameters(file).cost("scrypt", stored -> stored));
+  }
+
+  @Test
+  public void raisedCostIsStored() throws IOException {
+    new PasswordParameters(file).cost("scrypt", stored -> 32768);
+    new PasswordParameters(file).cost("scrypt", stored -> stored * 2);
+
+    assertEquals(65536, new PasswordParameters(file).cost("scrypt", stored -> stored));
+  }
+
+  @Test
+  public void costsAreKeptPerAlgorithm() throws IOException {
+    var parameters = new PasswordParameters(file);
+    parameters.cost("scrypt", stored -> 32768);
+    parameters.cost("pbkdf2", stored -> 600_000);
+
+    var reloaded = new PasswordParameters(file);
+    assertEquals(32768, reloaded.cost("scrypt", stored -> stored));
+    assertEquals(600_000, reloaded.cost("pbkdf2", stored -> stored));
+  }
+}
@@ -0,0 +1,156 @@
+package com.portfolio.wyche.permission;
+
+import static com.portfolio.wyche.permission.PermissionCache.DELETE;
+import static com.portfolio.wyche.permission.PermissionCache.READ;
+import static com.portfolio.wyche.permission.PermissionCache.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+
+public class PermissionCacheTest {
+
+  private TestDatabase database;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    database.owner.update("insert into users(user_id, pw_hash) values('alice', 'hash'), ('bob', 'hash')");
+    database.owner.update("insert into spaces(space_id, name, owner) values(1, 'one', 'alice'), " +
+        "(2, 'two', 'alice')");
+  }
+
+  @Test
+  public void maskConvertsPermissionStrings() {
+    assertEquals(0, PermissionCache.mask(""));
+    assertEquals(READ | WRITE, PermissionCache.mask("rw"));
+    assertEquals(READ | WRITE | DELETE, PermissionCache.mask("rwd"));
+
+    try {
+      PermissionCache.mask("rx");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void permissionsAreCachedUntilInvalidated() {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+    grant(1, "bob", "r");
+
+    assertEquals(READ, cache.permissions(1, "bob"));
+    assertEquals(0, cache.permissions(2, "bob"));
+
+    database.owner.update("update permissions set perms = 'rw' where space_id = 1 and user_id = 'bob'");
+    assertEquals(READ, cache.permissions(1, "bob"));
+    assertEquals(1, cache.metrics().getLong("hits"));
+
+    cache.invalidate(1, "bob");
+    assertEquals(READ | WRITE, cache.permissions(1, "bob"));
+  }
+
+  @Test
+  public void entriesAreHeldPerSpace() {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+    grant(1, "bob", "r");
+    grant(2, "bob", "rw");
+
+    assertEquals(READ, cache.permissions(1, "bob"));
+    assertEquals(READ | WRITE, cache.permissions(2, "bob"));
+    assertEquals(0, cache.permissions(2, "alice"));
+    assertEquals(2, cache.metrics().getLong("spaces"));
+    assertEquals(3, cache.metrics().getLong("size"));
+
+    // invalidating a user on a space leaves the other spaces cached
+    cache.invalidate(1, "bob");
+    assertEquals(2, cache.metrics().getLong("size"));
+    assertEquals(READ | WRITE, cache.permissions(2, "bob"));
+    assertEquals(1, cache.metrics().getLong("hits"));
+  }
+
+  @Test
+  public void permissionsExpireAfterTheTtl() throws InterruptedException {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMillis(50));
+    assertEquals(0, cache.permissions(1, "bob"));
+
+    // a grant made without invalidating the cache
+    grant(1, "bob", "r");
+    Thread.sleep(100);
+
+    assertEquals(READ, cache.permissions(1, "bob"));
+  }
+
+  @Test
+  public void grantsRacingWithLookupsAreNeverLostFromTheCache() throws Exception {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+    grant(1, "bob", "r");
+    var done = new AtomicBoolean();
+
+    var readers = new CompletableFuture<?>[4];
+    for (var i = 0; i < readers.length; i++) {
+      readers[i] = CompletableFuture.runAsync(() -> {
+        while (!done.get()) {
+          cache.permissions(1, "bob");
+        }
+      });
+    }
+
+    var perms = new String[] { "r", "rw", "rwd" };
+    for (var i = 0; i < 300; i++) {
+      database.owner.update("update permissions set perms = ? where space_id = 1 and user_id = 'bob'",
+          perms[i % perms.length]);
+      cache.invalidate(1, "bob");
+      assertEquals(PermissionCache.mask(perms[i % perms.length]), cache.permissions(1, "bob"));
+    }
+
+    done.set(true);
+    CompletableFuture.allOf(readers).get(10, TimeUnit.SECONDS);
+    assertEquals(READ | WRITE | DELETE, cache.permissions(1, "bob"));
+  }
+
+  @Test
+  public void snapshotIsTrustedUntilTheNextGrant() {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+    grant(1, "bob", "rw");
+    grant(2, "bob", "r");
+
+    var attributes = new HashMap<String, String>();
+    cache.snapshot("bob", attributes);
+    var claim = attributes.get(PermissionCache.CLAIM);
+    var version = attributes.get(PermissionCache.VERSION_CLAIM);
+
+    // revoked without invalidating: the snapshot is still trusted
+    database.owner.update("delete from permissions where user_id = 'bob'");
+    assertEquals(READ | WRITE, cache.permissions(1, "bob", claim, version));
+    assertEquals(READ, cache.permissions(2, "bob", claim, version));
+    assertEquals(2, cache.metrics().getLong("snapshot_hits"));
+
+    // a grant to the user makes every earlier snapshot stale
+    cache.invalidate(1, "bob");
+    assertEquals(0, cache.permissions(1, "bob", claim, version));
+    assertEquals(1, cache.metrics().getLong("stale_snapshots"));
+  }
+
+  @Test
+  public void snapshotsFromBeforeTheStartAreNotTrusted() {
+    var cache = new PermissionCache(database.api, 10, 100, Duration.ofMinutes(5));
+
+    assertEquals(0, cache.permissions(1, "bob", "1:7", "1"));
+    assertEquals(1, cache.metrics().getLong("stale_snapshots"));
+  }
+
+  private void grant(long spaceId, String username, String perms) {
+    database.owner.update("insert into permissions(space_id, user_id, perms) values(?,?,?)",
+        spaceId, username, perms);
+  }
+}
@@ -0,0 +1,127 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestRequest;
+
+public class BinaryTokenStoreTest {
+
+  private final TestRequest request = new TestRequest("POST", "/sessions", null);
+  private SecretKey key;
+  private BinaryTokenStore tokenStore;
+
+  @Before
+  public void setUp() {
+    key = newKey();
+    tokenStore = new BinaryTokenStore(key);
+  }
+
+  @Test
+  public void tokenRoundTrips() {
+    var expiry = Instant.now().plus(10, ChronoUnit.MINUTES);
+    var token = new TokenStore.Token(expiry, "alice");
+    token.attributes.put("scope", "read write");
+    token.attributes.put("perms:1", "rwd");
+    token.attributes.put("name", "Zoë");
+
+    var read = tokenStore.read(request, tokenStore.create(request, token)).get();
+
+    assertEquals("alice", read.username);
+    assertEquals(expiry.truncatedTo(ChronoUnit.SECONDS), read.expiry);
+    assertEquals(token.attributes, read.attributes);
+  }
+
+  @Test
+  public void expiryIsKeptForTheCallerToCheck() {
+    var expiry = Instant.now().minus(1, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.SECONDS);
+    var tokenId = tokenStore.create(request, new TokenStore.Token(expiry, "alice"));
+
+    // an expired token still decodes, the token controller rejects it as
+    // expired rather than as an invalid token
+    assertEquals(expiry, tokenStore.read(request, tokenId).get().expiry);
+  }
+
+  @Test
+  public void tamperedTokensAreRejected() {
+    var sealed = Base64url.decode(tokenStore.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice")));
+
+    for (var index : new int[] { 0, 1, 20, sealed.length - 1 }) {
+      var tampered = sealed.clone();
+      tampered[index] ^= 1;
+      assertRejected(Base64url.encode(tampered));
+    }
+
+    var otherKey = new BinaryTokenStore(newKey());
+    assertFalse(otherKey.read(request, Base64url.encode(sealed)).isPresent());
+  }
+
+  @Test
+  public void truncatedTokensAreRejected() {
+    var sealed = Base64url.decode(tokenStore.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice")));
+
+    for (var length = 0; length < sealed.length; length++) {
+      assertRejected(Base64url.encode(Arrays.copyOf(sealed, length)));
+    }
+    assertRejected("not base64url!");
+  }
+
+  @Test
+  public void malformedClaimsAreRejected() throws Exception {
+    var claims = ByteBuffer.allocate(8 + 2 + 5 + 2 + 1)
+        .putLong(Instant.now().plusSeconds(60).getEpochSecond())
+        .putShort((short) 5).put("alice".getBytes(UTF_8))
+        .putShort((short) 0);
+
+    // correctly sealed, but with a byte after the last field
+    assertRejected(seal(claims.put((byte) 0).array()));
+    // correctly sealed, but missing the attribute count
+    assertRejected(seal(Arrays.copyOf(claims.array(), 8 + 2 + 5)));
+    assertEquals("alice", tokenStore.read(request, seal(Arrays.copyOf(claims.array(), 8 + 2 + 5 + 2))).get().username);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void revokeIsNotSupported() {
+    tokenStore.revoke(request, tokenStore.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice")));
+  }
+
+  private void assertRejected(String tokenId) {
+    assertFalse(tokenStore.read(request, tokenId).isPresent());
+  }
+
+  // seals raw claims the way the store does: version | nonce | AES-GCM(claims)
+  private String seal(byte[] claims) throws Exception {
+    var nonce = new byte[12];
+    var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, nonce));
+    cipher.updateAAD(new byte[] { 1 });
+
+    var ciphertext = cipher.doFinal(claims);
+    return Base64url.encode(ByteBuffer.allocate(1 + nonce.length + ciphertext.length)
+        .put((byte) 1).put(nonce).put(ciphertext).array());
+  }
+
+  private static SecretKey newKey() {
+    try {
+      var keyGenerator = KeyGenerator.getInstance("AES");
+      keyGenerator.init(256);
+      return keyGenerator.generateKey();
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.portfolio.wyche.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.portfolio.wyche.TestRequest;
+
+import spark.Request;
+
+public class CachingTokenStoreTest {
+
+  private final StubStore delegate = new StubStore();
+  private final TestRequest request = new TestRequest("GET", "/spaces", null);
+
+  @Test
+  public void validTokensAreServedFromTheCache() {
+    var store = new CachingTokenStore(delegate, Duration.ofMinutes(1), 100);
+    var tokenId = store.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice"));
+
+    assertEquals("alice", store.read(request, tokenId).get().username);
+    assertEquals("alice", store.read(request, tokenId).get().username);
+    assertEquals(1, delegate.reads.get());
+    // unknown tokens are not cached
+    assertFalse(store.read(request, "unknown").isPresent());
+    assertFalse(store.read(request, "unknown").isPresent());
+    assertEquals(3, delegate.reads.get());
+  }
+
+  @Test
+  public void tokensAreCachedUntilTheirOwnExpiry() throws InterruptedException {
+    var store = new CachingTokenStore(delegate, Duration.ofMinutes(1), 100);
+    var tokenId = store.create(request, new TokenStore.Token(Instant.now().plusMillis(100), "alice"));
+
+    assertTrue(store.read(request, tokenId).isPresent());
+    Thread.sleep(150);
+
+    // the expired token is left to the delegate to report
+    store.read(request, tokenId);
+    assertEquals(2, delegate.reads.get());
+  }
+
+  @Test
+  public void tokensAreCachedAtMostForTheMaxTtl() throws InterruptedException {
+    var store = new CachingTokenStore(delegate, Duration.ofMillis(100), 100);
+    var tokenId = store.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice"));
+
+    store.read(request, tokenId);
+    Thread.sleep(150);
+    store.read(request, tokenId);
+
+    assertEquals(2, delegate.reads.get());
+  }
+
+  @Test
+  public void revokedTokensAreNotServed() {
+    var store = new CachingTokenStore(delegate, Duration.ofMinutes(1), 100);
+    var tokenId = store.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice"));
+    store.read(request, tokenId);
+
+    store.revoke(request, tokenId);
+
+    assertFalse(store.read(request, tokenId).isPresent());
+  }
+
+  @Test
+  public void readRacingWithARevocationDoesNotCacheTheToken() throws Exception {
+    var store = new CachingTokenStore(delegate, Duration.ofMinutes(1), 100);
+    var tokenId = store.create(request, new TokenStore.Token(Instant.now().plusSeconds(60), "alice"));
+
+    // the read has fetched the token from the delegate when the revocation
+    // happens, before putting it in the cache
+    delegate.fetched = new CountDownLatch(1);
+    delegate.resume = new CountDownLatch(1);
+    var read = CompletableFuture.supplyAsync(() -> store.read(request, tokenId));
+    assertTrue(delegate.fetched.await(10, TimeUnit.SECONDS));
+    delegate.fetched = null;
+
+    store.revoke(request, tokenId);
+    delegate.resume.countDown();
+    assertTrue(read.get(10, TimeUnit.SECONDS).isPresent());
+
+    assertFalse(store.read(request, tokenId).isPresent());
+  }
+
+  private static class StubStore implements TokenStore {
+    final Map<String, Token> tokens = new ConcurrentHashMap<>();
+    final AtomicInteger reads = new AtomicInteger();
+    volatile CountDownLatch fetched;
+    volatile CountDownLatch resume;
+
+    @Override
+    public String create(Request request, Token token) {
+      var tokenId = "token" + tokens.size();
+      tokens.put(tokenId, token);
+      return tokenId;
+    }
+
+    @Override
+    public Optional<Token> read(Request request, String tokenId) {
+      reads.incrementAndGet();
+      var token = Optional.ofNullable(tokens.get(tokenId));
+
+      var fetched = this.fetched;
+      if (fetched != null) {
+        fetched.countDown();
+        try {
+          resume.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      return token;
+    }
+
+    @Override
+    public void revoke(Request request, String tokenId) {
+      tokens.remove(tokenId);
+    }
+  }
+}
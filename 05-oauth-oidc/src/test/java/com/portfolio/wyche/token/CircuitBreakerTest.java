@@ -0,0 +1,76 @@
+package com.portfolio.wyche.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import com.portfolio.wyche.token.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, Duration.ofMillis(50));
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    fail(2);
+    circuitBreaker.onSuccess(circuitBreaker.tryAcquire().get());
+    fail(2);
+    assertEquals(State.CLOSED, circuitBreaker.state());
+
+    fail(1);
+    assertEquals(State.OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.tryAcquire().isPresent());
+  }
+
+  @Test
+  public void allowsASingleProbeOnceTheOpenDurationHasElapsed() throws InterruptedException {
+    fail(3);
+    Thread.sleep(60);
+
+    var probe = circuitBreaker.tryAcquire();
+    assertTrue(probe.isPresent());
+    assertEquals(State.HALF_OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.tryAcquire().isPresent());
+
+    circuitBreaker.onSuccess(probe.get());
+    assertEquals(State.CLOSED, circuitBreaker.state());
+    assertTrue(circuitBreaker.tryAcquire().isPresent());
+  }
+
+  @Test
+  public void failedProbeReopens() throws InterruptedException {
+    fail(3);
+    Thread.sleep(60);
+
+    circuitBreaker.onFailure(circuitBreaker.tryAcquire().get());
+    assertEquals(State.OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.tryAcquire().isPresent());
+  }
+
+  @Test
+  public void lateOutcomeOfACallStartedBeforeOpeningIsIgnored() throws InterruptedException {
+    var late = circuitBreaker.tryAcquire().get();
+    var lateFailure = circuitBreaker.tryAcquire().get();
+    fail(3);
+    Thread.sleep(60);
+
+    var probe = circuitBreaker.tryAcquire().get();
+    circuitBreaker.onSuccess(late);
+    circuitBreaker.onFailure(lateFailure);
+    assertEquals(State.HALF_OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.tryAcquire().isPresent());
+
+    circuitBreaker.onSuccess(probe);
+    assertEquals(State.CLOSED, circuitBreaker.state());
+  }
+
+  private void fail(int calls) {
+    for (var i = 0; i < calls; i++) {
+      circuitBreaker.onFailure(circuitBreaker.tryAcquire().get());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class CryptoProviderTest {
+
+  private static final byte[] DATA = "token-id".getBytes(UTF_8);
+
+  @Test
+  public void macIsSharedPerAlgorithmAndUsesTheGivenKey() throws Exception {
+    var first = new SecretKeySpec("first key of 32 bytes, for hmac".getBytes(UTF_8), "HmacSHA256");
+    var second = new SecretKeySpec("second key of 32 bytes, for mac".getBytes(UTF_8), "HmacSHA256");
+
+    var mac = CryptoProvider.mac(first);
+    assertArrayEquals(expected(first), mac.doFinal(DATA));
+    // the same instance, initialised with the other key
+    assertSame(mac, CryptoProvider.mac(second));
+    assertArrayEquals(expected(second), CryptoProvider.mac(second).doFinal(DATA));
+    assertArrayEquals(expected(first), CryptoProvider.mac(first).doFinal(DATA));
+    // an equal key in another object is also used as given
+    var copy = new SecretKeySpec(first.getEncoded(), "HmacSHA256");
+    assertArrayEquals(expected(first), CryptoProvider.mac(copy).doFinal(DATA));
+  }
+
+  @Test
+  public void cipherIsSharedPerTransformation() {
+    assertSame(CryptoProvider.cipher("AES/CTR/NoPadding"), CryptoProvider.cipher("AES/CTR/NoPadding"));
+  }
+
+  private static byte[] expected(SecretKeySpec key) throws Exception {
+    var mac = Mac.getInstance(key.getAlgorithm());
+    mac.init(key);
+
+    return mac.doFinal(DATA);
+  }
+}
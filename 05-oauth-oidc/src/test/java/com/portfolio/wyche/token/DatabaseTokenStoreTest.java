@@ -0,0 +1,114 @@
+package com.portfolio.wyche.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.token.TokenStore.Token;
+
+public class DatabaseTokenStoreTest {
+
+  private static final int BATCH_SIZE = 10;
+  private static final Duration PAUSE = Duration.ofMillis(50);
+  private static final Duration MIN_INTERVAL = Duration.ofMillis(100);
+  private static final Duration MAX_INTERVAL = Duration.ofMillis(400);
+
+  private TestDatabase database;
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void expiredTokensAreDeletedInBatches() throws InterruptedException {
+    insertExpired(35);
+    var valid = new DatabaseTokenStore(database.api).create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+    var store = store();
+
+    // 3 full batches, each followed by a pause, then a partial one which ends
+    // the run and halves the interval as there was a backlog
+    awaitTrue(() -> store.metrics().getLong("rows_deleted") == 35);
+    awaitTrue(() -> store.metrics().getLong("interval_ms") == MAX_INTERVAL.dividedBy(2).toMillis());
+    assertEquals(35, store.metrics().getLong("rows_selected"));
+    assertEquals(3 * PAUSE.toMillis(), store.metrics().getLong("pause_ms"));
+    assertEquals(1, rows());
+    assertTrue(store.read(null, valid).isPresent());
+
+    // runs without anything to delete let the interval grow back
+    awaitTrue(() -> store.metrics().getLong("interval_ms") == MAX_INTERVAL.toMillis());
+    assertEquals(35, store.metrics().getLong("rows_deleted"));
+    assertEquals(0, store.metrics().getLong("errors"));
+  }
+
+  @Test
+  public void failedRunsBackOff() throws InterruptedException {
+    insertExpired(BATCH_SIZE * 2);
+    database.owner.update("alter table tokens rename to tokens_unavailable");
+    var store = store();
+
+    // a failing run neither pauses nor shrinks the interval
+    awaitTrue(() -> store.metrics().getLong("errors") >= 2);
+    assertEquals(0, store.metrics().getLong("pause_ms"));
+    assertEquals(MAX_INTERVAL.toMillis(), store.metrics().getLong("interval_ms"));
+
+    database.owner.update("alter table tokens_unavailable rename to tokens");
+    awaitTrue(() -> rows() == 0);
+  }
+
+  @Test
+  public void expiredTokensCanBeDeletedOnDemand() {
+    insertExpired(BATCH_SIZE * 2 + 1);
+    var store = new DatabaseTokenStore(database.api, null, BATCH_SIZE, PAUSE, MIN_INTERVAL, MAX_INTERVAL);
+
+    store.deleteExpiredTokens();
+
+    assertEquals(0, rows());
+    assertEquals(BATCH_SIZE * 2 + 1, store.metrics().getLong("rows_deleted"));
+  }
+
+  private DatabaseTokenStore store() {
+    return new DatabaseTokenStore(database.api, scheduler, BATCH_SIZE, PAUSE, MIN_INTERVAL, MAX_INTERVAL);
+  }
+
+  private void insertExpired(int count) {
+    var expiry = Timestamp.from(Instant.now().minusSeconds(60));
+    for (var i = 0; i < count; i++) {
+      database.owner.update("insert into tokens(token_id, user_id, expiry, attributes) values(?,?,?,?)",
+          "expired-" + i, "alice", expiry, "{}");
+    }
+  }
+
+  private int rows() {
+    return database.owner.findUniqueInt("select count(*) from tokens");
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("condition not met in time");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import com.portfolio.wyche.TestRequest;
+import com.sun.net.httpserver.HttpServer;
+
+import spark.Request;
+
+// JwtAccessTokenStore against a stub JWK set endpoint, with a stub
+// introspection store accepting the "opaque" token only
+public class JwtAccessTokenStoreTest {
+
+  private static final String ISSUER = "https://as.example.com";
+  private static final String AUDIENCE = "https://api.example.com";
+
+  private HttpServer server;
+  private ScheduledExecutorService scheduler;
+  private volatile JWKSet jwkSet;
+  private final AtomicInteger jwkSetCalls = new AtomicInteger();
+  private final AtomicInteger introspections = new AtomicInteger();
+  private final TestRequest request = new TestRequest("GET", "/spaces", null);
+  private RSAKey key;
+  private JwtAccessTokenStore tokenStore;
+
+  @Before
+  public void setUp() throws Exception {
+    key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+    jwkSet = new JWKSet(key.toPublicJWK());
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/jwks", exchange -> {
+      jwkSetCalls.incrementAndGet();
+      var body = jwkSet.toString().getBytes(UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.start();
+
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    var jwkSetUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/jwks");
+    tokenStore = new JwtAccessTokenStore(jwkSetUri, ISSUER, AUDIENCE, new StubIntrospection(), scheduler);
+    await(() -> tokenStore.metrics().getInt("keys") == 1);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+    server.stop(0);
+  }
+
+  @Test
+  public void validTokenIsAcceptedLocally() throws Exception {
+    var token = tokenStore.read(request, sign(claims().claim("scope", List.of("read", "write"))
+        .claim("client_id", "client").build())).get();
+
+    assertEquals("alice", token.username);
+    assertEquals("read write", token.attributes.get("scope"));
+    assertEquals("client", token.attributes.get("client_id"));
+    assertEquals(1, tokenStore.metrics().getLong("local_validations"));
+    assertEquals(0, introspections.get());
+
+    var scopeString = tokenStore.read(request, sign(claims().claim("scope", "read").build())).get();
+    assertEquals("read", scopeString.attributes.get("scope"));
+  }
+
+  @Test
+  public void claimsAreValidated() throws Exception {
+    assertRejected(sign(claims().issuer("https://other.example.com").build()));
+    assertRejected(sign(claims().audience("https://other-api.example.com").build()));
+    assertRejected(sign(claims().audience((String) null).build()));
+    assertRejected(sign(claims().expirationTime(Date.from(Instant.now().minusSeconds(1))).build()));
+    assertRejected(sign(claims().expirationTime(null).build()));
+    assertRejected(sign(claims().subject(null).build()));
+    assertRejected(sign(claims().claim("client_id", 42).build()));
+    assertEquals(0, introspections.get());
+  }
+
+  @Test
+  public void tamperedSignatureIsRejected() throws Exception {
+    var jwt = sign(claims().build());
+    var tampered = jwt.substring(0, jwt.length() - 4) + (jwt.endsWith("AAAA") ? "BBBB" : "AAAA");
+
+    assertRejected(tampered);
+  }
+
+  @Test
+  public void otherAlgorithmsThanTheKeyAreRejected() throws Exception {
+    // signed with the public key as an HMAC secret
+    var hmac = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID(key.getKeyID()).build(),
+        claims().build());
+    hmac.sign(new MACSigner(key.toPublicJWK().toRSAPublicKey().getEncoded()));
+
+    assertRejected(hmac.serialize());
+    assertEquals(0, introspections.get());
+  }
+
+  @Test
+  public void unsignedTokensAreNeverAcceptedLocally() {
+    var plain = new PlainJWT(claims().build()).serialize();
+
+    // left to introspection, like opaque tokens
+    assertRejected(plain);
+    assertEquals(1, introspections.get());
+    assertEquals(0, tokenStore.metrics().getLong("local_validations"));
+    assertTrue(tokenStore.read(request, "opaque").isPresent());
+  }
+
+  @Test
+  public void unknownKeyFallsBackToIntrospectionAndRefreshes() throws Exception {
+    var rotated = new RSAKeyGenerator(2048).keyID("key-2").generate();
+    jwkSet = new JWKSet(List.of(key.toPublicJWK(), rotated.toPublicJWK()));
+    var jwt = sign(rotated, claims().build());
+
+    assertRejected(jwt);
+    assertEquals(1, introspections.get());
+
+    // the refresh runs in the background, later tokens are validated locally
+    await(() -> tokenStore.metrics().getInt("keys") == 2);
+    assertEquals("alice", tokenStore.read(request, jwt).get().username);
+    assertEquals(1, introspections.get());
+  }
+
+  @Test
+  public void refreshesForUnknownKeysAreRateLimited() throws Exception {
+    var unknown = new RSAKeyGenerator(2048).keyID("unknown").generate();
+    await(() -> tokenStore.metrics().getLong("refreshes") == 1);
+
+    tokenStore.read(request, sign(unknown, claims().build()));
+    await(() -> tokenStore.metrics().getLong("refreshes") == 2);
+    for (var i = 0; i < 10; i++) {
+      tokenStore.read(request, sign(unknown, claims().build()));
+    }
+    Thread.sleep(200);
+
+    assertEquals(2, tokenStore.metrics().getLong("refreshes"));
+    assertEquals(2, jwkSetCalls.get());
+    assertEquals(11, introspections.get());
+  }
+
+  private void assertRejected(String tokenId) {
+    assertFalse(tokenStore.read(request, tokenId).isPresent());
+  }
+
+  private static JWTClaimsSet.Builder claims() {
+    return new JWTClaimsSet.Builder()
+        .issuer(ISSUER)
+        .audience(AUDIENCE)
+        .subject("alice")
+        .expirationTime(Date.from(Instant.now().plusSeconds(60)));
+  }
+
+  private String sign(JWTClaimsSet claims) throws Exception {
+    return sign(key, claims);
+  }
+
+  private static String sign(RSAKey key, JWTClaimsSet claims) throws Exception {
+    var jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+    jwt.sign(new RSASSASigner(key));
+
+    return jwt.serialize();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("condition not met");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private class StubIntrospection implements TokenStore {
+    @Override
+    public String create(Request request, Token token) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<Token> read(Request request, String tokenId) {
+      introspections.incrementAndGet();
+      return tokenId.equals("opaque")
+          ? Optional.of(new Token(Instant.now().plusSeconds(60), "bob"))
+          : Optional.empty();
+    }
+
+    @Override
+    public void revoke(Request request, String tokenId) {
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package com.portfolio.wyche.token;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// OAuth2TokenStore against a stub introspection endpoint answering according
+// to the token: "active-*" tokens are active, "error-*" tokens fail with a 500
+// and any other token is inactive. "slow-*" tokens are answered after 1 second
+// and "timeout-*" tokens after the client's request timeout
+public class OAuth2TokenStoreTest {
+
+  private HttpServer server;
+  private URI endpoint;
+  private OAuth2TokenStore tokenStore;
+  private final AtomicInteger calls = new AtomicInteger();
+  private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+  private volatile long delayMillis;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/introspect", this::introspect);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    endpoint = URI.create("http://localhost:" + server.getAddress().getPort() + "/introspect");
+    tokenStore = tokenStore(endpoint, Duration.ofMinutes(5), Duration.ZERO);
+  }
+
+  private static OAuth2TokenStore tokenStore(URI endpoint, Duration cacheTtl, Duration staleGracePeriod) {
+    var httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    return new OAuth2TokenStore(endpoint, "client", "secret", httpClient,
+        cacheTtl, Duration.ofSeconds(10), staleGracePeriod, 100);
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void activeTokenIsReturnedAndCached() {
+    var token = tokenStore.read(null, "active-1");
+
+    assertTrue(token.isPresent());
+    assertEquals("alice", token.get().username);
+    assertEquals("read write", token.get().attributes.get("scope"));
+    assertEquals("client", token.get().attributes.get("client_id"));
+
+    assertTrue(tokenStore.read(null, "active-1").isPresent());
+    assertEquals(1, calls.get());
+    assertEquals(1, tokenStore.metrics().getLong("hits"));
+  }
+
+  @Test
+  public void clientAuthenticatesWithBasicCredentials() {
+    tokenStore.read(null, "active-1");
+
+    var expected = "Basic " + Base64.getEncoder().encodeToString("client:secret".getBytes(UTF_8));
+    assertEquals(expected, authorizations.get("active-1"));
+  }
+
+  @Test
+  public void inactiveTokenIsEmptyAndNegativelyCached() {
+    assertFalse(tokenStore.read(null, "revoked-1").isPresent());
+    assertFalse(tokenStore.read(null, "revoked-1").isPresent());
+
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void serverErrorFailsTheReadAndIsNotCached() {
+    for (var i = 0; i < 2; i++) {
+      try {
+        tokenStore.read(null, "error-1");
+        fail("the introspection error must not be reported as an inactive token");
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage().contains("500"));
+      }
+    }
+
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void invalidTokenIsRejectedWithoutIntrospection() {
+    assertFalse(tokenStore.read(null, "not\nprintable").isPresent());
+
+    assertEquals(0, calls.get());
+  }
+
+  // many threads keep reading the same token before, during and right after
+  // its introspection completes: they all share the single remote call
+  @Test
+  public void concurrentReadsOfTheSameTokenShareOneIntrospection() throws Exception {
+    var threads = 32;
+    var readsPerThread = 200;
+    delayMillis = 200;
+
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      var start = new CountDownLatch(1);
+      var results = new ArrayList<Future<Integer>>();
+      for (var i = 0; i < threads; i++) {
+        results.add(executor.submit((Callable<Integer>) () -> {
+          start.await();
+          var active = 0;
+          for (var j = 0; j < readsPerThread; j++) {
+            if (tokenStore.read(null, "active-load").isPresent()) {
+              active++;
+            }
+          }
+          return active;
+        }));
+      }
+      start.countDown();
+
+      for (var result : results) {
+        assertEquals(readsPerThread, (int) result.get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, calls.get());
+    var metrics = tokenStore.metrics();
+    assertEquals(threads * readsPerThread, metrics.getLong("hits") + metrics.getLong("misses"));
+  }
+
+  @Test
+  public void timeoutIsReportedAsUnavailable() {
+    try {
+      tokenStore.read(null, "timeout-1");
+      fail("a timeout must be reported as a temporary condition");
+    } catch (RejectedExecutionException e) {
+      assertEquals("authorization server unavailable", e.getMessage());
+    }
+  }
+
+  @Test
+  public void connectionFailureIsReportedAsUnavailable() throws IOException {
+    int port;
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    var unreachable = tokenStore(URI.create("http://localhost:" + port + "/introspect"), Duration.ofMinutes(5),
+        Duration.ZERO);
+
+    try {
+      unreachable.read(null, "active-1");
+      fail("a connection failure must be reported as a temporary condition");
+    } catch (RejectedExecutionException e) {
+      assertEquals("authorization server unavailable", e.getMessage());
+    }
+  }
+
+  // with every introspection slot taken, a stale hit is served at once and its
+  // refresh is skipped rather than waiting for a slot
+  @Test
+  public void staleHitDoesNotWaitForASlotWhenSaturated() throws Exception {
+    var staleStore = tokenStore(endpoint, Duration.ofMillis(100), Duration.ofMinutes(1));
+    assertTrue(staleStore.read(null, "active-stale").isPresent());
+    Thread.sleep(150);
+
+    var executor = Executors.newCachedThreadPool();
+    try {
+      for (var i = 0; i < 64; i++) {
+        var token = "slow-" + i;
+        executor.execute(() -> {
+          try {
+            staleStore.read(null, token);
+          } catch (RuntimeException e) {
+            // the server is stopped before these calls complete
+          }
+        });
+      }
+      var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (staleStore.metrics().getInt("in_flight") < 64 && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(64, staleStore.metrics().getInt("in_flight"));
+
+      var start = System.nanoTime();
+      assertTrue(staleStore.read(null, "active-stale").isPresent());
+      var elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertTrue("stale hit took " + elapsed + " ms", elapsed < 250);
+      assertEquals(1, staleStore.metrics().getLong("stale_hits"));
+      assertEquals(1, staleStore.metrics().getLong("refreshes_skipped"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void introspect(HttpExchange exchange) throws IOException {
+    calls.incrementAndGet();
+
+    var form = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+    var token = "";
+    for (var field : form.split("&")) {
+      if (field.startsWith("token=")) {
+        token = URLDecoder.decode(field.substring("token=".length()), UTF_8);
+      }
+    }
+    authorizations.put(token, exchange.getRequestHeaders().getFirst("Authorization"));
+
+    try {
+      Thread.sleep(token.startsWith("timeout-") ? 3_000 : token.startsWith("slow-") ? 1_000 : delayMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (token.startsWith("error-")) {
+      respond(exchange, 500, new JSONObject().put("error", "server_error"));
+    } else if (token.startsWith("active-")) {
+      respond(exchange, 200, new JSONObject()
+          .put("active", true)
+          .put("sub", "alice")
+          .put("scope", "read write")
+          .put("client_id", "client")
+          .put("exp", Instant.now().plusSeconds(600).getEpochSecond()));
+    } else {
+      respond(exchange, 200, new JSONObject().put("active", false));
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+    var bytes = body.toString().getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.portfolio.wyche.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.TestRequest;
+import com.portfolio.wyche.token.TokenStore.Token;
+
+public class TokenDenyListTest {
+
+  private TestDatabase database;
+  private ScheduledExecutorService scheduler;
+  private final TestRequest request = new TestRequest("DELETE", "/sessions", null);
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void revokedTokensAreRejectedImmediatelyAndAfterAReload() {
+    var key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    var encKey = new SecretKeySpec(key, "AES");
+    var store = new EncryptedJwtTokenStore(encKey, new TokenDenyList(database.api, 100, scheduler));
+
+    var tokenId = store.create(request, new Token(Instant.now().plusSeconds(600), "alice"));
+    var other = store.create(request, new Token(Instant.now().plusSeconds(600), "bob"));
+    assertTrue(store.read(request, tokenId).isPresent());
+
+    store.revoke(request, tokenId);
+    assertFalse(store.read(request, tokenId).isPresent());
+    assertTrue(store.read(request, other).isPresent());
+
+    // another instance, or the same one after a restart
+    var reloaded = new EncryptedJwtTokenStore(encKey, new TokenDenyList(database.api, 100, scheduler));
+    assertFalse(reloaded.read(request, tokenId).isPresent());
+    assertTrue(reloaded.read(request, other).isPresent());
+  }
+
+  @Test
+  public void filterMatchesAreCheckedAgainstTheRevokedIds() {
+    // a filter sized for a single revocation reports most ids as possibly
+    // revoked once it holds hundreds
+    var denyList = new TokenDenyList(database.api, 1, scheduler);
+    var expiry = Instant.now().plusSeconds(600);
+    for (var i = 0; i < 500; i++) {
+      denyList.revoke("revoked-" + i, expiry);
+    }
+
+    for (var i = 0; i < 1_000; i++) {
+      assertFalse(denyList.isRevoked("valid-" + i));
+    }
+    for (var i = 0; i < 500; i++) {
+      assertTrue(denyList.isRevoked("revoked-" + i));
+    }
+    assertTrue(denyList.metrics().getLong("false_positives") > 0);
+  }
+
+  @Test
+  public void purgeOnlyRemovesExpiredRevocations() throws InterruptedException {
+    var denyList = new TokenDenyList(database.api, 100, scheduler);
+    denyList.revoke("expiring", Instant.now().plusMillis(100));
+    denyList.revoke("valid", Instant.now().plusSeconds(600));
+    // already expired, not loaded but still in the table
+    database.owner.update("insert into revoked_tokens(jwt_id, expiry) values('expired', ?)",
+        Instant.now().minusSeconds(60));
+    Thread.sleep(150);
+
+    denyList.deleteExpiredRevocations();
+
+    assertFalse(denyList.isRevoked("expiring"));
+    assertTrue(denyList.isRevoked("valid"));
+    assertEquals(1, denyList.metrics().getInt("revoked"));
+    assertEquals(1, database.owner.findUniqueInt("select count(*) from revoked_tokens"));
+    assertEquals("valid", database.owner.findUnique(String.class, "select jwt_id from revoked_tokens"));
+  }
+
+  @Test
+  public void expiredTokensAreNotRecorded() {
+    var denyList = new TokenDenyList(database.api, 100, scheduler);
+    denyList.revoke("expired", Instant.now().minusSeconds(1));
+
+    assertFalse(denyList.isRevoked("expired"));
+    assertEquals(0, database.owner.findUniqueInt("select count(*) from revoked_tokens"));
+  }
+}
@@ -0,0 +1,145 @@
+package com.portfolio.wyche.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.portfolio.wyche.TestDatabase;
+import com.portfolio.wyche.token.TokenStore.Token;
+import com.portfolio.wyche.token.WriteBehindTokenStore.Durability;
+
+public class WriteBehindTokenStoreTest {
+
+  private TestDatabase database;
+  private ScheduledExecutorService scheduler;
+
+  @Before
+  public void setUp() {
+    database = TestDatabase.create();
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void tokensAreReadFromMemoryAndPersistedInTheBackground() throws InterruptedException {
+    var store = store(Durability.ASYNC);
+    var tokenId = store.create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+
+    assertEquals("alice", store.read(null, tokenId).get().username);
+    awaitTrue(() -> rows() == 1);
+
+    // a new store rebuilds its view from the table
+    var reloaded = store(Durability.ASYNC);
+    assertEquals("alice", reloaded.read(null, tokenId).get().username);
+  }
+
+  @Test
+  public void failedBatchIsRetriedInOrder() throws InterruptedException {
+    var store = store(Durability.ASYNC);
+    var kept = store.create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+    awaitTrue(() -> rows() == 1);
+
+    database.owner.update("alter table tokens rename to tokens_unavailable");
+    var revoked = store.create(null, new Token(Instant.now().plusSeconds(60), "bob"));
+    store.revoke(null, kept);
+    awaitTrue(() -> store.metrics().getLong("failed_writes") > 0);
+    assertTrue(store.metrics().getInt("retry_depth") > 0);
+
+    database.owner.update("alter table tokens_unavailable rename to tokens");
+    awaitTrue(() -> store.metrics().getInt("retry_depth") == 0);
+
+    assertEquals(1, rows());
+    var reloaded = store(Durability.ASYNC);
+    assertFalse(reloaded.read(null, kept).isPresent());
+    assertTrue(reloaded.read(null, revoked).isPresent());
+  }
+
+  @Test
+  public void changesAreRejectedWhenTheQueueStaysFull() throws InterruptedException {
+    var store = new WriteBehindTokenStore(database.api, Durability.ASYNC, Duration.ofMillis(20), 1, scheduler);
+    database.owner.update("alter table tokens rename to tokens_unavailable");
+    store.create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+    awaitTrue(() -> store.metrics().getInt("retry_depth") == 1);
+
+    var queued = store.create(null, new Token(Instant.now().plusSeconds(60), "bob"));
+    try {
+      store.revoke(null, queued);
+      fail("revocation queued");
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, store.metrics().getLong("rejected"));
+    }
+    // the revocation was not queued, so the token is still valid
+    assertTrue(store.read(null, queued).isPresent());
+  }
+
+  @Test
+  public void closeWritesPendingChangesDuringBackoff() {
+    // flushed only on close
+    var store = new WriteBehindTokenStore(database.api, Durability.ASYNC, Duration.ofMinutes(1), 1_000, scheduler);
+    database.owner.update("alter table tokens rename to tokens_unavailable");
+    var tokenId = store.create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+    store.close();
+    assertEquals(1, store.metrics().getInt("retry_depth"));
+
+    database.owner.update("alter table tokens_unavailable rename to tokens");
+    store.close();
+
+    assertEquals(0, store.metrics().getInt("retry_depth"));
+    assertTrue(store(Durability.ASYNC).read(null, tokenId).isPresent());
+  }
+
+  @Test
+  public void failedSynchronousRevocationKeepsTheToken() {
+    var store = store(Durability.SYNC);
+    var tokenId = store.create(null, new Token(Instant.now().plusSeconds(60), "alice"));
+    assertEquals(1, rows());
+
+    database.owner.update("alter table tokens rename to tokens_unavailable");
+    try {
+      store.revoke(null, tokenId);
+      fail("revocation not written");
+    } catch (RuntimeException e) {
+      assertTrue(store.read(null, tokenId).isPresent());
+    }
+
+    database.owner.update("alter table tokens_unavailable rename to tokens");
+    store.revoke(null, tokenId);
+    assertFalse(store.read(null, tokenId).isPresent());
+    assertEquals(0, rows());
+  }
+
+  private WriteBehindTokenStore store(Durability durability) {
+    return new WriteBehindTokenStore(database.api, durability, Duration.ofMillis(20), 1_000, scheduler);
+  }
+
+  private int rows() {
+    return database.owner.findUniqueInt("select count(*) from tokens");
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("condition not met in time");
+      }
+      Thread.sleep(10);
+    }
+  }
+}